@@ -0,0 +1,96 @@
+import javax.swing.*;
+import java.awt.*;
+import java.util.function.Consumer;
+
+/**
+ * A window listing records with multiple selection, so several entries can be deleted in one go. The list reads its
+ * entries straight from a snapshot as they are scrolled into view, so it opens quickly even for very large stores.
+ * The chosen records are handed back as snapshot indexes, to be deleted with a single RecyclerBatch.
+ */
+public class BatchDeleteDialog extends JDialog
+{
+    private static final long serialVersionUID = 1L;
+
+    private final JList<Recycler> lstRecords;
+    private final int[] indexes;
+
+    /**
+     * Creates the window.
+     * @param owner The frame the window belongs to.
+     * @param snapshot The records to choose from.
+     * @param indexes The indexes of the records to list, such as the results of a filter, in the order to list them.
+     * @param onDelete Receives the snapshot indexes of the chosen records when Delete is pressed.
+     */
+    public BatchDeleteDialog(JFrame owner, RecyclerSnapshot snapshot, int[] indexes, Consumer<int[]> onDelete)
+    {
+        super(owner, "Delete Several Entries", true);
+        this.indexes = indexes;
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        setSize(600, 400);
+        setLocationRelativeTo(owner);
+        setLayout(new BorderLayout());
+
+        //A list model that looks the records up in the snapshot only when the list needs to draw them.
+        lstRecords = new JList<>(new AbstractListModel<Recycler>()
+        {
+            @Override
+            public int getSize()
+            {
+                return indexes.length;
+            }
+
+            @Override
+            public Recycler getElementAt(int index)
+            {
+                return snapshot.Get(indexes[index]);
+            }
+        });
+        lstRecords.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        //Show the name and address of each record, and give every row the same height so the list never measures
+        //every record.
+        lstRecords.setCellRenderer(new DefaultListCellRenderer()
+        {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                                                          boolean cellHasFocus)
+            {
+                Recycler data = (Recycler) value;
+                String text = data.getBusinessName() + "  -  " + data.getAddress();
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+        lstRecords.setFixedCellHeight(20);
+        add(new JScrollPane(lstRecords), BorderLayout.CENTER);
+
+        JLabel lblSelected = new JLabel(" 0 of " + indexes.length + " selected");
+        lstRecords.addListSelectionListener(e -> lblSelected.setText(" " + lstRecords.getSelectedIndices().length
+                + " of " + indexes.length + " selected"));
+
+        JButton btnDelete = new JButton("Delete Selected");
+        btnDelete.addActionListener(e -> {
+            int[] selected = lstRecords.getSelectedIndices();
+            if (selected.length == 0)
+            {
+                return;
+            }
+            //Turn the rows of the list back into snapshot indexes.
+            int[] chosen = new int[selected.length];
+            for (int i = 0; i < selected.length; i++)
+            {
+                chosen[i] = this.indexes[selected[i]];
+            }
+            dispose();
+            onDelete.accept(chosen);
+        });
+        JButton btnCancel = new JButton("Cancel");
+        btnCancel.addActionListener(e -> dispose());
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(btnDelete);
+        buttons.add(btnCancel);
+        JPanel south = new JPanel(new BorderLayout());
+        south.add(lblSelected, BorderLayout.WEST);
+        south.add(buttons, BorderLayout.EAST);
+        add(south, BorderLayout.SOUTH);
+    }
+}
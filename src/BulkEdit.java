@@ -0,0 +1,114 @@
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Command line tools for changing many records at once without opening the window:
+ *   java Main --import other.csv              adds every record in another data file
+ *   java Main --delete-matching cardboard     deletes every record whose recycled products contain the text
+ * Each one loads the records, builds a single RecyclerBatch with every change in it, applies it with one call to
+ * RecyclerStore.ApplyBatch() and saves once, so even a large import rewrites the data file a single time. With
+ * -Drecyclers.feed=true the changes are written to the change feed and the checkpoint is moved on, just as when
+ * they are made in the window, so read replicas follow them. Run them while the application is not running, as the
+ * data file is read at the start and written at the end.
+ */
+public class BulkEdit
+{
+    /**
+     * Adds every record in another data file after the existing records.
+     * @param fileName The file to import, in the same format as the data file.
+     * @return The number of records added, or -1 if an error occurred.
+     */
+    public static int Import(String fileName)
+    {
+        if (!new File(fileName).isFile())
+        {
+            System.out.println("There is no file called " + fileName + " to import.");
+            return -1;
+        }
+        Recycler[] imported = new FileManager(fileName).ReadDataFromFile();
+        if (imported == null)
+        {
+            return -1;
+        }
+        return Apply((store, batch) -> {
+            for (Recycler record : imported)
+            {
+                if (record == null)
+                {
+                    break;
+                }
+                batch.Add(record);
+            }
+        });
+    }
+
+    /**
+     * Deletes every record whose recycled products contain the given text, ignoring case, as the filter does.
+     * @param text The text to look for.
+     * @return The number of records deleted, or -1 if an error occurred.
+     */
+    public static int DeleteMatching(String text)
+    {
+        return Apply((store, batch) -> {
+            for (int index : RecyclerQueries.Filter(store.GetSnapshot(), text))
+            {
+                batch.Delete(index);
+            }
+        });
+    }
+
+    // Fills a batch for the records in the data file.
+    private interface BatchBuilder
+    {
+        void Build(RecyclerStore store, RecyclerBatch batch);
+    }
+
+    // Loads the data file, applies the batch built from it in one step and saves the result once.
+    private static int Apply(BatchBuilder builder)
+    {
+        FileManager file = FileManager.Create();
+        RecyclerStore store = new RecyclerStore(0);
+        if (file.GetDataFile().exists())
+        {
+            Recycler[] data = file.ReadDataFromFile();
+            if (data == null)
+            {
+                System.out.println("The data file could not be read, so nothing was changed.");
+                return -1;
+            }
+            int count = 0;
+            while (count < data.length && data[count] != null)
+            {
+                count++;
+            }
+            store.Load(Arrays.copyOf(data, count));
+        }
+        DataFileFingerprint loadedFingerprint = DataFileFingerprint.Of(file.GetDataFile());
+        file.TrackChanges(store);
+        //Log the changes for read replicas, as the window does.
+        ChangeFeed feed = null;
+        if (Boolean.getBoolean("recyclers.feed") && file.KeepsRecordOrder())
+        {
+            feed = new ChangeFeed(file.GetCompanionFile(".feed"), file.GetCompanionFile(".checkpoint"));
+            store.AddChangeListener(feed);
+            feed.WriteCheckpoint(loadedFingerprint);
+        }
+
+        RecyclerBatch batch = new RecyclerBatch(store.GetSnapshot());
+        builder.Build(store, batch);
+        int changed = batch.IsEmpty() ? 0 : store.ApplyBatch(batch).size();
+        if (changed > 0)
+        {
+            file.WriteDataToFile(store.GetSnapshot());
+            if (feed != null)
+            {
+                feed.WriteCheckpoint(DataFileFingerprint.Of(file.GetDataFile()));
+            }
+        }
+        if (feed != null)
+        {
+            feed.Close();
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,351 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * An ordered, append only log of every change made to a RecyclerStore, so another process can follow along without
+ * re-reading the data file. Each change is written to the feed file as one line:
+ *
+ *   sequence;timestamp;type;index;old record (5 fields);new record (5 fields)
+ *
+ * Sequence numbers start at 1 and carry on from the last line in the file when the application is restarted. The
+ * old record is empty for an ADD and the new record is empty for a DELETE. Any ';', '%' or line break typed into a
+ * field is written as %3B, %25, %0A or %0D, so every line always splits into the same fields. Lines are flushed as
+ * soon as the change is made, so a follower tailing the file sees it straight away.
+ *
+ * Every time the data file is saved a checkpoint file is written next to the feed with the sequence number of the
+ * last change in the saved data and the fingerprint of the data file. A new follower starts from the data file and
+ * the checkpoint, then applies the feed from the change after it. See ReplicaFollower.
+ *
+ * The feed is switched on with -Drecyclers.feed=true.
+ */
+public class ChangeFeed implements RecyclerStore.ChangeListener
+{
+    // The number of fields in a feed line.
+    private static final int FIELD_COUNT = 14;
+
+    // A change read back from the feed, with its sequence number and the time it was made.
+    public static final class Entry
+    {
+        final long sequence;
+        final long timestamp;
+        final RecyclerChange change;
+
+        Entry(long sequence, long timestamp, RecyclerChange change)
+        {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.change = change;
+        }
+    }
+
+    // The point in the feed the data file was last saved at.
+    public static final class Checkpoint
+    {
+        final long sequence;
+        final DataFileFingerprint fingerprint;
+
+        Checkpoint(long sequence, DataFileFingerprint fingerprint)
+        {
+            this.sequence = sequence;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private final File checkpointFile;
+    private BufferedWriter writer;
+    // The sequence number of the last change written. Guarded by this object's lock.
+    private long lastSequence;
+
+    /**
+     * Opens a feed for appending, carrying on from the last sequence number already in it.
+     * @param feedFile The feed file, which is created if it does not exist.
+     * @param checkpointFile The file the checkpoint is written to.
+     */
+    public ChangeFeed(File feedFile, File checkpointFile)
+    {
+        this.checkpointFile = checkpointFile;
+        try
+        {
+            lastSequence = ReadLastSequence(feedFile);
+            boolean unfinishedLine = EndsPartWayThroughLine(feedFile);
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(feedFile, true),
+                    StandardCharsets.UTF_8));
+            if (unfinishedLine)
+            {
+                // The last run stopped part way through writing a line, so start the next change on a line of its own.
+                writer.newLine();
+                writer.flush();
+            }
+        }
+        catch (Exception ex)
+        {
+            //Print error message to console if an exception occurs
+            System.out.println(ex.getMessage());
+        }
+    }
+
+    public synchronized long getLastSequence()
+    {
+        return lastSequence;
+    }
+
+    @Override
+    public synchronized void RecordsChanged(RecyclerSnapshot previous, RecyclerSnapshot snapshot,
+                                            List<RecyclerChange> changes)
+    {
+        if (writer == null)
+        {
+            return;
+        }
+        try
+        {
+            long now = System.currentTimeMillis();
+            for (RecyclerChange change : changes)
+            {
+                lastSequence++;
+                writer.write(Format(lastSequence, now, change));
+                writer.newLine();
+            }
+            writer.flush();
+        }
+        catch (Exception ex)
+        {
+            System.out.println(ex.getMessage());
+        }
+    }
+
+    /**
+     * Records that the data file now holds every change up to the last one written to the feed. Call this straight
+     * after saving the data file, before any further change is made.
+     * @param fingerprint The fingerprint of the data file just saved.
+     */
+    public synchronized void WriteCheckpoint(DataFileFingerprint fingerprint)
+    {
+        if (fingerprint == null)
+        {
+            return;
+        }
+        File temp = new File(checkpointFile.getPath() + ".tmp");
+        try
+        {
+            String text = lastSequence + ";" + fingerprint.getSize() + ";" + fingerprint.getLastModified() + ";"
+                    + Long.toHexString(fingerprint.getChecksum()) + System.lineSeparator();
+            Files.write(temp.toPath(), text.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (Exception ex)
+        {
+            System.out.println(ex.getMessage());
+        }
+    }
+
+    public synchronized void Close()
+    {
+        try
+        {
+            if (writer != null)
+            {
+                writer.close();
+                writer = null;
+            }
+        }
+        catch (Exception ex)
+        {
+            System.out.println(ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads a checkpoint file.
+     * @param checkpointFile The checkpoint file.
+     * @return The checkpoint, or null if there is none or it could not be read.
+     */
+    public static Checkpoint ReadCheckpoint(File checkpointFile)
+    {
+        if (!checkpointFile.isFile())
+        {
+            return null;
+        }
+        try
+        {
+            String[] temp = new String(Files.readAllBytes(checkpointFile.toPath()), StandardCharsets.UTF_8).trim()
+                    .split(";");
+            return new Checkpoint(Long.parseLong(temp[0]), new DataFileFingerprint(Long.parseLong(temp[1]),
+                    Long.parseLong(temp[2]), Long.parseUnsignedLong(temp[3], 16)));
+        }
+        catch (Exception ex)
+        {
+            System.out.println(ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Turns a change into a feed line, without the line ending.
+     * @param sequence The sequence number of the change.
+     * @param timestamp The time the change was made, in milliseconds since the epoch.
+     * @param change The change.
+     * @return The feed line.
+     */
+    public static String Format(long sequence, long timestamp, RecyclerChange change)
+    {
+        return sequence + ";" + timestamp + ";" + change.getType() + ";" + change.getIndex() + ";"
+                + FormatRecord(change.getOldData()) + ";" + FormatRecord(change.getNewData());
+    }
+
+    /**
+     * Turns a feed line back into a change.
+     * @param line A line written by Format().
+     * @return The change with its sequence number and time.
+     * @throws IllegalArgumentException If the line is not a complete feed line.
+     */
+    public static Entry Parse(String line)
+    {
+        String[] temp = line.split(";", -1);
+        if (temp.length != FIELD_COUNT)
+        {
+            throw new IllegalArgumentException("Malformed change feed line: " + line);
+        }
+        long sequence = Long.parseLong(temp[0]);
+        long timestamp = Long.parseLong(temp[1]);
+        int index = Integer.parseInt(temp[3]);
+        Recycler oldData = new Recycler(Unescape(temp[4]), Unescape(temp[5]), Unescape(temp[6]), Unescape(temp[7]),
+                Unescape(temp[8]));
+        Recycler newData = new Recycler(Unescape(temp[9]), Unescape(temp[10]), Unescape(temp[11]),
+                Unescape(temp[12]), Unescape(temp[13]));
+        switch (RecyclerChange.Type.valueOf(temp[2]))
+        {
+            case ADD:
+                return new Entry(sequence, timestamp, RecyclerChange.Added(index, newData));
+            case UPDATE:
+                return new Entry(sequence, timestamp, RecyclerChange.Updated(index, oldData, newData));
+            default:
+                return new Entry(sequence, timestamp, RecyclerChange.Deleted(index, oldData));
+        }
+    }
+
+    /**
+     * Reads just the sequence number from the start of a feed line, for lines that could not be parsed.
+     * @param line A feed line.
+     * @return The sequence number, or -1 if the line does not start with one.
+     */
+    public static long ParseSequence(String line)
+    {
+        int end = line.indexOf(';');
+        try
+        {
+            return Long.parseLong(end < 0 ? line : line.substring(0, end));
+        }
+        catch (NumberFormatException ex)
+        {
+            return -1;
+        }
+    }
+
+    // Writes a record as its five fields, or five empty fields if there is no record.
+    private static String FormatRecord(Recycler data)
+    {
+        if (data == null)
+        {
+            return ";;;;";
+        }
+        return Escape(data.getBusinessName()) + ";" + Escape(data.getAddress()) + ";" + Escape(data.getPhone()) + ";"
+                + Escape(data.getWebsite()) + ";" + Escape(data.getRecycles());
+    }
+
+    // Replaces the characters that would break a feed line with their percent codes.
+    private static String Escape(String field)
+    {
+        if (field == null)
+        {
+            return "";
+        }
+        if (field.indexOf('%') < 0 && field.indexOf(';') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0)
+        {
+            return field;
+        }
+        return field.replace("%", "%25").replace(";", "%3B").replace("\n", "%0A").replace("\r", "%0D");
+    }
+
+    // Turns the percent codes written by Escape() back into the original characters.
+    private static String Unescape(String field)
+    {
+        if (field.indexOf('%') < 0)
+        {
+            return field;
+        }
+        return field.replace("%3B", ";").replace("%0A", "\n").replace("%0D", "\r").replace("%25", "%");
+    }
+
+    // Finds the sequence number on the last line of the feed that can be read, working back from the end of the file.
+    // A line that cannot be parsed, such as one cut short when the application stopped, is skipped rather than
+    // stopping the feed from opening.
+    private static long ReadLastSequence(File feedFile) throws Exception
+    {
+        if (!feedFile.isFile() || feedFile.length() == 0)
+        {
+            return 0;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(feedFile, "r"))
+        {
+            long position = file.length() - 1;
+            while (position >= 0)
+            {
+                // Skip line endings, then look back for the start of the line before them.
+                while (position >= 0 && IsLineEnd(file, position))
+                {
+                    position--;
+                }
+                long lineEnd = position + 1;
+                while (position >= 0 && !IsLineEnd(file, position))
+                {
+                    position--;
+                }
+                if (lineEnd - position - 1 == 0)
+                {
+                    break;
+                }
+                byte[] line = new byte[(int) (lineEnd - position - 1)];
+                file.seek(position + 1);
+                file.readFully(line);
+                try
+                {
+                    return Parse(new String(line, StandardCharsets.UTF_8)).sequence;
+                }
+                catch (IllegalArgumentException ex)
+                {
+                    System.out.println("Skipping unreadable change feed line: " + ex.getMessage());
+                }
+            }
+            return 0;
+        }
+    }
+
+    // Checks whether the feed ends without a line ending, meaning the last line was not finished.
+    private static boolean EndsPartWayThroughLine(File feedFile) throws Exception
+    {
+        if (!feedFile.isFile() || feedFile.length() == 0)
+        {
+            return false;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(feedFile, "r"))
+        {
+            return !IsLineEnd(file, file.length() - 1);
+        }
+    }
+
+    private static boolean IsLineEnd(RandomAccessFile file, long position) throws Exception
+    {
+        file.seek(position);
+        int c = file.read();
+        return c == '\n' || c == '\r';
+    }
+}
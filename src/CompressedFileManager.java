@@ -0,0 +1,344 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * File manager that stores the records in a block compressed file. The records are split into blocks of a fixed
+ * number of records, each block is compressed on its own with the JDK's Deflater, and a block index at the end of the
+ * file records where each block starts, how big it is and how many records it holds. The file layout is:
+ *
+ *   "RCZ1" | block 0 | block 1 | ... | block index | index offset (long) | block count (int) | "RCZ1"
+ *
+ * Because the blocks do not depend on each other, they are compressed in parallel when saving and decompressed in
+ * parallel when loading. The whole file is always loaded, as the records are kept in memory; paging, which reads
+ * single records on demand, is only available with the plain data file.
+ * Record text compresses several times over, so the file is much smaller than the plain data file and takes less
+ * time to read from a slow disk.
+ *
+ * Compressed storage is switched on with -Drecyclers.store.compressed=true. The number of records in a block can be
+ * set with -Drecyclers.compress.block and the Deflater level (1 to 9) with -Drecyclers.compress.level. If the
+ * compressed file does not exist yet the records are read from the ordinary data file, and the first save creates it.
+ */
+public class CompressedFileManager extends FileManager
+{
+    // Written at the start and the very end of the file, so a truncated or unrelated file is recognised.
+    private static final int MAGIC = 0x52435A31;
+    // The size of the footer after the block index: the index offset, the block count and the magic number.
+    private static final int FOOTER_SIZE = 16;
+    // The size of each entry in the block index.
+    private static final int INDEX_ENTRY_SIZE = 20;
+
+    // The compressed data file.
+    private final File compressedFile;
+    private final int blockSize;
+    private final int level;
+
+    // Where a block is in the file and which records it holds.
+    private static final class BlockInfo
+    {
+        final long offset;
+        final int compressedLength;
+        final int rawLength;
+        final int count;
+
+        BlockInfo(long offset, int compressedLength, int rawLength, int count)
+        {
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+            this.rawLength = rawLength;
+            this.count = count;
+        }
+    }
+
+    // Creates a compressed file manager for the default data file, configured from the system properties.
+    public CompressedFileManager()
+    {
+        this("LocalRecyclers.csv", Integer.getInteger("recyclers.compress.block", 1024),
+                Integer.getInteger("recyclers.compress.level", Deflater.DEFAULT_COMPRESSION));
+    }
+
+    /**
+     * Creates a compressed file manager.
+     * @param fileName The ordinary data file. The compressed file is kept next to it with a ".rcz" extension, and the
+     *                 file itself is only read when there is no compressed file yet.
+     * @param blockSize The number of records in each compressed block.
+     * @param level The Deflater compression level, from 1 for fastest to 9 for smallest.
+     */
+    public CompressedFileManager(String fileName, int blockSize, int level)
+    {
+        super(fileName);
+        String baseName = fileName.endsWith(".csv") ? fileName.substring(0, fileName.length() - 4) : fileName;
+        this.compressedFile = new File(baseName + ".rcz");
+        this.blockSize = Math.max(1, blockSize);
+        this.level = level;
+    }
+
+    @Override
+    public boolean SupportsPaging()
+    {
+        return false;
+    }
+
+    @Override
+    public File GetDataFile()
+    {
+        return compressedFile.isFile() ? compressedFile : super.GetDataFile();
+    }
+
+    /**
+     * Compresses the records block by block, in parallel, and writes them with their block index.
+     * @param data An array of Recycler objects, ending at the first null entry.
+     */
+    @Override
+    public void WriteDataToFile(Recycler[] data)
+    {
+        Metrics.Timing start = Metrics.Start();
+        int count = 0;
+        while (count < data.length && data[count] != null)
+        {
+            count++;
+        }
+        // Start compressing every block at once, then write them out in order as they finish.
+        List<ForkJoinTask<byte[]>> compressed = new ArrayList<>();
+        List<Integer> rawLengths = new ArrayList<>();
+        for (int from = 0; from < count; from += blockSize)
+        {
+            Recycler[] block = Arrays.copyOfRange(data, from, Math.min(count, from + blockSize));
+            byte[] raw = BlockText(block);
+            rawLengths.add(raw.length);
+            compressed.add(RecyclerQueries.pool.submit(() -> Compress(raw)));
+        }
+        File temp = new File(compressedFile.getPath() + ".tmp");
+        try
+        {
+            List<BlockInfo> written = new ArrayList<>();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))
+            {
+                out.writeInt(MAGIC);
+                long offset = 4;
+                for (int i = 0; i < compressed.size(); i++)
+                {
+                    byte[] bytes = compressed.get(i).join();
+                    out.write(bytes);
+                    written.add(new BlockInfo(offset, bytes.length, rawLengths.get(i),
+                            Math.min(blockSize, count - i * blockSize)));
+                    offset += bytes.length;
+                }
+                for (BlockInfo block : written)
+                {
+                    out.writeLong(block.offset);
+                    out.writeInt(block.compressedLength);
+                    out.writeInt(block.rawLength);
+                    out.writeInt(block.count);
+                }
+                out.writeLong(offset);
+                out.writeInt(written.size());
+                out.writeInt(MAGIC);
+            }
+            // Replace the old file in one step, so a failed save never leaves half a file behind.
+            Files.move(temp.toPath(), compressedFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (Exception ex)
+        {
+            Metrics.RecordError(Metrics.Operation.WRITE);
+            System.out.println(ex.getMessage());
+            count = 0;
+        }
+        Metrics.Stop(Metrics.Operation.WRITE, start, count);
+    }
+
+    /**
+     * Reads the whole file, decompressing the blocks in parallel.
+     * @return An array of Recycler objects with a null entry after the last record, or null if an error occurred.
+     */
+    @Override
+    public Recycler[] ReadDataFromFile()
+    {
+        if (!compressedFile.isFile())
+        {
+            return super.ReadDataFromFile();
+        }
+        List<Recycler> records = new ArrayList<>();
+        boolean read = ReadDataFromFile(Integer.MAX_VALUE, batch -> records.addAll(Arrays.asList(batch)));
+        return read ? records.toArray(new Recycler[records.size() + 1]) : null;
+    }
+
+    /**
+     * Reads the whole file, decompressing the blocks in parallel and handing the records over in file order.
+     * @param batchSize The maximum number of records in each batch.
+     * @param batchConsumer Receives each batch of records.
+     * @return True if the whole file was read, false if an error occurred.
+     */
+    @Override
+    public boolean ReadDataFromFile(int batchSize, Consumer<Recycler[]> batchConsumer)
+    {
+        if (!compressedFile.isFile())
+        {
+            return super.ReadDataFromFile(batchSize, batchConsumer);
+        }
+        Metrics.Timing start = Metrics.Start();
+        int counter = 0;
+        try (FileChannel channel = FileChannel.open(compressedFile.toPath(), StandardOpenOption.READ))
+        {
+            List<BlockInfo> index = ReadIndex(channel);
+            // Positional reads on a FileChannel are safe from several threads at once.
+            List<ForkJoinTask<Recycler[]>> reads = new ArrayList<>();
+            for (BlockInfo block : index)
+            {
+                reads.add(RecyclerQueries.pool.submit(() -> ReadBlock(channel, block)));
+            }
+            for (ForkJoinTask<Recycler[]> read : reads)
+            {
+                Recycler[] records = read.join();
+                for (int from = 0; from < records.length; from += batchSize)
+                {
+                    batchConsumer.accept(Arrays.copyOfRange(records, from,
+                            (int) Math.min(records.length, (long) from + batchSize)));
+                }
+                counter += records.length;
+            }
+            Metrics.Stop(Metrics.Operation.LOAD, start, counter);
+            return true;
+        }
+        catch (Exception ex)
+        {
+            Metrics.RecordError(Metrics.Operation.LOAD);
+            System.out.println(ex.getMessage());
+            return false;
+        }
+    }
+
+    // Reads the footer and block index from the end of the file.
+    private static List<BlockInfo> ReadIndex(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        if (size < 4 + FOOTER_SIZE || ReadFully(channel, 0, 4).getInt() != MAGIC)
+        {
+            throw new IOException("Not a compressed recycler file.");
+        }
+        ByteBuffer footer = ReadFully(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+        long indexOffset = footer.getLong();
+        int blockCount = footer.getInt();
+        if (footer.getInt() != MAGIC || indexOffset + (long) blockCount * INDEX_ENTRY_SIZE + FOOTER_SIZE != size)
+        {
+            throw new IOException("The compressed recycler file is incomplete.");
+        }
+        ByteBuffer entries = ReadFully(channel, indexOffset, blockCount * INDEX_ENTRY_SIZE);
+        List<BlockInfo> index = new ArrayList<>(blockCount);
+        for (int i = 0; i < blockCount; i++)
+        {
+            index.add(new BlockInfo(entries.getLong(), entries.getInt(), entries.getInt(), entries.getInt()));
+        }
+        return index;
+    }
+
+    // Reads and decompresses one block.
+    private static Recycler[] ReadBlock(FileChannel channel, BlockInfo block) throws IOException, DataFormatException
+    {
+        ByteBuffer compressed = ReadFully(channel, block.offset, block.compressedLength);
+        byte[] raw = new byte[block.rawLength];
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(compressed.array());
+            int length = 0;
+            while (length < raw.length && !inflater.finished())
+            {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != raw.length)
+            {
+                throw new DataFormatException("A compressed block is shorter than its index entry says.");
+            }
+        }
+        finally
+        {
+            inflater.end();
+        }
+        Metrics.Timing parseStart = Metrics.Start();
+        Recycler[] records = new Recycler[block.count];
+        String text = new String(raw, StandardCharsets.UTF_8);
+        int lineStart = 0;
+        for (int i = 0; i < records.length; i++)
+        {
+            int lineEnd = text.indexOf('\n', lineStart);
+            records[i] = ParseRecycler(text.substring(lineStart, lineEnd));
+            lineStart = lineEnd + 1;
+        }
+        Metrics.Stop(Metrics.Operation.PARSE, parseStart, records.length);
+        return records;
+    }
+
+    // Reads a range of bytes from the file, looping until all of them have been read.
+    private static ByteBuffer ReadFully(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("Unexpected end of the compressed recycler file.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // Turns a block of records into the text that is compressed, one record per line.
+    private static byte[] BlockText(Recycler[] block)
+    {
+        StringBuilder text = new StringBuilder(block.length * 128);
+        for (Recycler record : block)
+        {
+            text.append(record).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] Compress(byte[] raw)
+    {
+        Deflater deflater = new Deflater(level);
+        try
+        {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, raw.length / 2)];
+            int length = 0;
+            while (!deflater.finished())
+            {
+                if (length == buffer.length)
+                {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+}
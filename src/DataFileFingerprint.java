@@ -0,0 +1,98 @@
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Identifies the exact contents of a data file by its size, last modified time and a CRC32C checksum of every byte.
+ * Anything saved alongside the data file, such as the lookup indexes, is tagged with the fingerprint of the data it
+ * was built from, so it is only reused while the data file is still exactly the same.
+ */
+public final class DataFileFingerprint
+{
+    // The file is read through a buffer of this size. It is not memory mapped, as on Windows a file cannot be
+    // rewritten while a mapping of it is still waiting to be garbage collected, which would break the next save.
+    private static final int READ_BUFFER = 1 << 20;
+
+    private final long size;
+    private final long lastModified;
+    private final long checksum;
+
+    DataFileFingerprint(long size, long lastModified, long checksum)
+    {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Takes the fingerprint of a file, reading the whole file to checksum it.
+     * @param file The file.
+     * @return The fingerprint, or null if the file does not exist or could not be read.
+     */
+    public static DataFileFingerprint Of(File file)
+    {
+        if (file == null || !file.isFile())
+        {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long lastModified = file.lastModified();
+            long size = channel.size();
+            CRC32C crc = new CRC32C();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER);
+            while (channel.read(buffer) > 0)
+            {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+            return new DataFileFingerprint(size, lastModified, crc.getValue());
+        }
+        catch (Exception ex)
+        {
+            System.out.println(ex.getMessage());
+            return null;
+        }
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+    public long getChecksum()
+    {
+        return checksum;
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if (!(other instanceof DataFileFingerprint))
+        {
+            return false;
+        }
+        DataFileFingerprint that = (DataFileFingerprint) other;
+        return size == that.size && lastModified == that.lastModified && checksum == that.checksum;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Long.hashCode(size) * 31 + Long.hashCode(checksum);
+    }
+
+    @Override
+    public String toString()
+    {
+        return size + " bytes, modified " + lastModified + ", crc32c " + Long.toHexString(checksum);
+    }
+}
@@ -0,0 +1,78 @@
+import javax.swing.*;
+import java.awt.*;
+import java.util.function.Supplier;
+
+/**
+ * A small window that shows the live latency and throughput figures collected by the Metrics class. The figures
+ * are refreshed once a second while the window is open. Opening the window switches metrics collection on, and
+ * closing it switches collection back off unless it was already on before.
+ */
+public class DiagnosticsDialog extends JDialog
+{
+    private static final long serialVersionUID = 1L;
+
+    // How often the figures are refreshed, in milliseconds.
+    private static final int REFRESH_INTERVAL = 1000;
+
+    private final JTextArea txtStats = new JTextArea();
+    // Supplies any extra lines to show below the metrics table, such as cache statistics.
+    private final Supplier<String> extraStats;
+    // Swing timer that refreshes the figures on the event dispatch thread.
+    private final Timer refreshTimer;
+    // Whether metrics were already being collected before this window was opened.
+    private final boolean wasEnabled;
+
+    /**
+     * Creates the diagnostics window.
+     * @param owner The frame the window belongs to.
+     * @param extraStats Supplies extra lines to show below the metrics table. May return an empty string.
+     */
+    public DiagnosticsDialog(JFrame owner, Supplier<String> extraStats)
+    {
+        super(owner, "Diagnostics", false);
+        this.extraStats = extraStats;
+        wasEnabled = Metrics.IsEnabled();
+        Metrics.SetEnabled(true);
+
+        //Dispose rather than hide on close, so the refresh timer is stopped.
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        setSize(640, 300);
+        setLocationRelativeTo(owner);
+        setLayout(new BorderLayout());
+
+        //Use a fixed width font so the columns of the table line up.
+        txtStats.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        txtStats.setEditable(false);
+        add(new JScrollPane(txtStats), BorderLayout.CENTER);
+
+        //Button to clear the collected figures and start measuring again.
+        JButton btnReset = new JButton("Reset");
+        btnReset.addActionListener(e -> {
+            Metrics.Reset();
+            Refresh();
+        });
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(btnReset);
+        add(buttons, BorderLayout.SOUTH);
+
+        refreshTimer = new Timer(REFRESH_INTERVAL, e -> Refresh());
+        refreshTimer.start();
+        Refresh();
+    }
+
+    @Override
+    public void dispose()
+    {
+        //Stop refreshing and put metrics collection back the way it was.
+        refreshTimer.stop();
+        Metrics.SetEnabled(wasEnabled);
+        super.dispose();
+    }
+
+    // Redraws the figures with the latest measurements.
+    private void Refresh()
+    {
+        String extra = extraStats.get();
+        txtStats.setText(Metrics.Report() + (extra.isEmpty() ? "" : "\n\n" + extra));
+    }
+}
@@ -1,7 +1,12 @@
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Class for managing file read and write.
@@ -11,12 +16,98 @@ public class FileManager
     // Stores the name of the file to read from and write to.
     String fileName = "LocalRecyclers.csv";
 
+    // Creates a file manager for the default LocalRecyclers.csv file.
+    public FileManager()
+    {
+
+    }
+
+    /**
+     * Creates a file manager for a different data file, such as a generated test dataset.
+     * @param fileName The name of the file to read from and write to.
+     */
+    public FileManager(String fileName)
+    {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Creates the file manager for the default data file, using the storage layout chosen with the system properties.
+     * @return A ShardedFileManager when -Drecyclers.store.sharded=true is set, a CompressedFileManager when
+     *         -Drecyclers.store.compressed=true is set, otherwise a plain FileManager.
+     */
+    public static FileManager Create()
+    {
+        if (Boolean.getBoolean("recyclers.store.sharded"))
+        {
+            return new ShardedFileManager();
+        }
+        if (Boolean.getBoolean("recyclers.store.compressed"))
+        {
+            return new CompressedFileManager();
+        }
+        return new FileManager();
+    }
+
+    /**
+     * Whether the records can be read straight out of the data file by a PagedRecyclerStore. This is only possible
+     * for the plain one-record-per-line file.
+     * @return True for the plain data file.
+     */
+    public boolean SupportsPaging()
+    {
+        return true;
+    }
+
+    /**
+     * Whether the records are read back in the order they were saved in. A change feed refers to records by their
+     * position, so it can only be followed from a data file that keeps the order.
+     * @return True if reading the file gives the records in the order they were written.
+     */
+    public boolean KeepsRecordOrder()
+    {
+        return true;
+    }
+
+    /**
+     * Gets the file whose contents decide what ReadDataFromFile() returns, so anything built from the records can
+     * tell whether the records have changed since.
+     * @return The data file.
+     */
+    public File GetDataFile()
+    {
+        return new File(fileName);
+    }
+
+    /**
+     * Gets a file that is kept next to the data file and named after it, such as the saved lookup indexes.
+     * @param extension The extension of the file, including the dot.
+     * @return The file, with the extension in place of the data file's ".csv".
+     */
+    public File GetCompanionFile(String extension)
+    {
+        String baseName = fileName.endsWith(".csv") ? fileName.substring(0, fileName.length() - 4) : fileName;
+        return new File(baseName + extension);
+    }
+
+    /**
+     * Gets the file the lookup indexes are saved in between runs, next to the data file.
+     * @return The index file.
+     */
+    public File GetIndexFile()
+    {
+        return GetCompanionFile(".idx");
+    }
+
     /**
      * Method for creating, updating, and deleting a recycler in LocalRecyclers.csv file.
      * @param data An array of Recycler objects.
      */
     public void WriteDataToFile(Recycler[] data)
     {
+        //Time how long the write takes so it shows up in the diagnostics.
+        Metrics.Timing start = Metrics.Start();
+        int written = 0;
         //All read/write operations in Java need to be contained within a try/catch structure because they
         //are interacting with resources outside the application files. This is to handle errors if
         //connection issues occur.
@@ -35,15 +126,72 @@ public class FileManager
                 //Write each entry in a delimited format before starting a new line.
                 buffer.write(data[i].toString());
                 buffer.newLine();
+                written++;
             }
             //Closes the buffer which causes it to flush out any remaining data and end the connection to the file.
             buffer.close();
         }
         catch(Exception ex)
         {
-            //Print error message to console if an exception occurs
+            //Count the failure and print error message to console if an exception occurs
+            Metrics.RecordError(Metrics.Operation.WRITE);
             System.out.println(ex.getMessage());
         }
+        Metrics.Stop(Metrics.Operation.WRITE, start, written);
+    }
+
+    /**
+     * Writes the records in a snapshot. Sharded storage overrides this to build only the shards that have changed
+     * since the last save, as reported to TrackChanges().
+     * @param snapshot The records to write.
+     */
+    public void WriteDataToFile(RecyclerSnapshot snapshot)
+    {
+        WriteDataToFile(snapshot.ToArray());
+    }
+
+    /**
+     * Starts following the changes made to a store after it was loaded from this file, so later saves can skip the
+     * records that have not changed. The plain data file is always written whole, so this does nothing here.
+     * @param store The store holding the records that were loaded from this file.
+     */
+    public void TrackChanges(RecyclerStore store)
+    {
+    }
+
+    /**
+     * Reads the records in one postcode region or range of business names. The plain data file has to be read in
+     * full; sharded storage overrides this to read only the shards that can hold the region.
+     * @param region The leading postcode digits, such as "2" or "2000", or the leading letters of the business names.
+     * @return The matching records in file order, or null if an error occurred.
+     */
+    public Recycler[] ReadRegion(String region)
+    {
+        Recycler[] data = ReadDataFromFile();
+        return data == null ? null : SelectRegion(data, region);
+    }
+
+    /**
+     * Picks out the records in a region.
+     * @param data An array of Recycler objects, ending at the first null entry.
+     * @param region The region, as given to ReadRegion().
+     * @return The records in the region, in the same order.
+     */
+    protected static Recycler[] SelectRegion(Recycler[] data, String region)
+    {
+        List<Recycler> matches = new ArrayList<>();
+        for (Recycler record : data)
+        {
+            if (record == null)
+            {
+                break;
+            }
+            if (RecyclerQueries.MatchesRegion(record, region))
+            {
+                matches.add(record);
+            }
+        }
+        return matches.toArray(new Recycler[0]);
     }
 
     /**
@@ -52,6 +200,8 @@ public class FileManager
      */
     public Recycler[] ReadDataFromFile()
     {
+        //Time how long the whole load takes so it shows up in the diagnostics.
+        Metrics.Timing start = Metrics.Start();
         //All read/write operations in Java need to be contained within a try/catch structure because they
         //are interacting with resources outside the application files. This is to handle errors if
         //connection issues occur.
@@ -74,26 +224,94 @@ public class FileManager
             //process the while loop code.
             while((line = buffer.readLine()) != null)
             {
-                //Take the recently read line and split it using the semicolons as the delimiter
-                String[] temp = line.split(";");
-
-                //At the index indicated by the counter value, create a new birthday entry and pass the split sections of
-                //the line into the constructor to pre-populate the entry
-                data[counter] = new Recycler(temp[0],temp[1],temp[2], temp[3], temp[4]);
+                //Double the size of the array when it is full, always leaving a null entry after the last record
+                //so the end of the data can still be found.
+                if (counter == data.length - 1)
+                {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                //At the index indicated by the counter value, create a new recycler entry from the split sections of the line.
+                Metrics.Timing parseStart = Metrics.Start();
+                data[counter] = ParseRecycler(line);
+                Metrics.Stop(Metrics.Operation.PARSE, parseStart, 1);
                 //Increase the counter by 1
                 counter++;
             }
             //Closes the buffer which causes it to flush out any remaining data and end the connection to the file.
             buffer.close();
+            Metrics.Stop(Metrics.Operation.LOAD, start, counter);
             //Return the finalised array back to where it was requested.
             return data;
         }
         catch(Exception ex)
         {
-            //Print error message to console if an exception occurs
+            //Count the failure and print error message to console if an exception occurs
+            Metrics.RecordError(Metrics.Operation.LOAD);
             System.out.println(ex.getMessage());
             //If an error occurred, return null to indicate an issue.
             return null;
         }
     }
+
+    /**
+     * Method for turning a single delimited line of the data file back into a Recycler object.
+     * @param line A line in the same format as written by Recycler.toString().
+     * @return A Recycler object pre-populated with the values from the line.
+     */
+    public static Recycler ParseRecycler(String line)
+    {
+        //Take the line and split it using the semicolons as the delimiter
+        String[] temp = line.split(";");
+        //Create a new recycler entry and pass the split sections of the line into the constructor to pre-populate the entry
+        return new Recycler(temp[0],temp[1],temp[2], temp[3], temp[4]);
+    }
+
+    /**
+     * Method for reading recyclers from LocalRecyclers.csv file a batch at a time. Each batch is handed to the consumer
+     * as soon as it has been read, so the caller can start using the first records while the rest of the file loads.
+     * @param batchSize The maximum number of records in each batch.
+     * @param batchConsumer Receives each batch of records, in file order. The last batch may be smaller than the others.
+     * @return True if the whole file was read, false if an error occurred.
+     */
+    public boolean ReadDataFromFile(int batchSize, Consumer<Recycler[]> batchConsumer)
+    {
+        Metrics.Timing start = Metrics.Start();
+        int counter = 0;
+        //Using try-with-resources closes the reader for us, even when an error occurs part way through.
+        try (BufferedReader buffer = new BufferedReader(new FileReader(fileName)))
+        {
+            Recycler[] batch = new Recycler[batchSize];
+            int batchCount = 0;
+            String line;
+            while ((line = buffer.readLine()) != null)
+            {
+                Metrics.Timing parseStart = Metrics.Start();
+                batch[batchCount] = ParseRecycler(line);
+                Metrics.Stop(Metrics.Operation.PARSE, parseStart, 1);
+                batchCount++;
+                counter++;
+                //Hand over the batch once it is full and start a new one.
+                if (batchCount == batchSize)
+                {
+                    batchConsumer.accept(batch);
+                    batch = new Recycler[batchSize];
+                    batchCount = 0;
+                }
+            }
+            //Hand over whatever is left as a smaller final batch.
+            if (batchCount > 0)
+            {
+                batchConsumer.accept(Arrays.copyOf(batch, batchCount));
+            }
+            Metrics.Stop(Metrics.Operation.LOAD, start, counter);
+            return true;
+        }
+        catch(Exception ex)
+        {
+            //Count the failure and print error message to console if an exception occurs
+            Metrics.RecordError(Metrics.Operation.LOAD);
+            System.out.println(ex.getMessage());
+            return false;
+        }
+    }
 }
@@ -0,0 +1,179 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.JTextComponent;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Runs a find or filter query as the user types into a text field. Each edit restarts a short timer and the query
+ * only runs once typing pauses, on a background thread so the window stays responsive. A query that is still
+ * running when newer text arrives is cancelled and its result thrown away.
+ *
+ * When the field is emptied any running query is cancelled and the caller is told, so it can clear what the last
+ * query showed.
+ *
+ * When the new text contains the previous query and the records have not changed, every possible match must also
+ * have matched the previous query, so only those records are checked again instead of the whole store.
+ * The pause before searching can be set in milliseconds with -Drecyclers.search.debounce.
+ */
+public class IncrementalSearch implements DocumentListener
+{
+    // How long typing must pause for before a query runs, in milliseconds.
+    static final int DEBOUNCE_DELAY = Integer.getInteger("recyclers.search.debounce", 150);
+
+    // One background thread shared by every search field, so queries never compete with each other for cores.
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "recycler-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final JTextComponent field;
+    private final Supplier<RecyclerSnapshot> snapshots;
+    // True to look for the first business name match, false to look for every recycled product match.
+    private final boolean findFirst;
+    // Receives the snapshot that was searched and the matching indexes, on the event dispatch thread.
+    private final BiConsumer<RecyclerSnapshot, int[]> onResult;
+    // Called on the event dispatch thread when the field is emptied.
+    private final Runnable onCleared;
+    // Waits for typing to pause before running the query.
+    private final Timer debounceTimer;
+    /**
+     * Increased each time a new query is started. A running query checks this to find out whether it has been
+     * superseded, and a finished query only reports its result if it is still the latest.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    // The last query that finished, used to narrow the next one. Only touched on the background thread.
+    private String lastQuery;
+    private long lastVersion = -1;
+    private int[] lastResult;
+
+    /**
+     * Starts listening to a text field.
+     * @param field The text field to watch.
+     * @param snapshots Supplies the records to search each time a query runs.
+     * @param findFirst True to find the first record whose business name matches, false to find every record whose
+     *                  recycled products match.
+     * @param onResult Receives the snapshot searched and the indexes of the matching records.
+     */
+    public IncrementalSearch(JTextComponent field, Supplier<RecyclerSnapshot> snapshots, boolean findFirst,
+                             BiConsumer<RecyclerSnapshot, int[]> onResult)
+    {
+        this(field, snapshots, findFirst, onResult, () -> { });
+    }
+
+    /**
+     * Starts listening to a text field.
+     * @param field The text field to watch.
+     * @param snapshots Supplies the records to search each time a query runs.
+     * @param findFirst True to find the first record whose business name matches, false to find every record whose
+     *                  recycled products match.
+     * @param onResult Receives the snapshot searched and the indexes of the matching records.
+     * @param onCleared Called when the field is emptied, after any running query has been cancelled.
+     */
+    public IncrementalSearch(JTextComponent field, Supplier<RecyclerSnapshot> snapshots, boolean findFirst,
+                             BiConsumer<RecyclerSnapshot, int[]> onResult, Runnable onCleared)
+    {
+        this.field = field;
+        this.snapshots = snapshots;
+        this.findFirst = findFirst;
+        this.onResult = onResult;
+        this.onCleared = onCleared;
+        debounceTimer = new Timer(DEBOUNCE_DELAY, e -> StartQuery());
+        debounceTimer.setRepeats(false);
+        field.getDocument().addDocumentListener(this);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e)
+    {
+        debounceTimer.restart();
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e)
+    {
+        debounceTimer.restart();
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e)
+    {
+        // Attribute changes don't change the text, so there is nothing to search for.
+    }
+
+    // Runs on the event dispatch thread when typing pauses. Cancels any running query and starts a new one.
+    private void StartQuery()
+    {
+        String query = field.getText();
+        long current = generation.incrementAndGet();
+        if (query.isEmpty())
+        {
+            onCleared.run();
+            return;
+        }
+        RecyclerSnapshot snapshot = snapshots.get();
+        executor.execute(() -> {
+            // Skip queries that were already superseded while waiting in the queue.
+            if (generation.get() != current)
+            {
+                return;
+            }
+            try
+            {
+                Metrics.Timing start = Metrics.Start();
+                int[] result = Search(snapshot, query, () -> generation.get() != current);
+                Metrics.Stop(findFirst ? Metrics.Operation.FIND : Metrics.Operation.FILTER, start, snapshot.Size());
+                SwingUtilities.invokeLater(() -> {
+                    // Only show the result if nothing newer has been typed in the meantime.
+                    if (generation.get() == current)
+                    {
+                        onResult.accept(snapshot, result);
+                    }
+                });
+            }
+            catch (CancellationException ex)
+            {
+                // A newer query replaced this one, which will report its own result.
+            }
+        });
+    }
+
+    // Runs the query, narrowing the previous result where possible, and remembers the result for next time.
+    private int[] Search(RecyclerSnapshot snapshot, String query, BooleanSupplier cancelled)
+    {
+        String lowerQuery = query.toLowerCase();
+        boolean narrowing = lastResult != null && lastVersion == snapshot.getVersion()
+                && lowerQuery.contains(lastQuery);
+        int[] result;
+        if (findFirst)
+        {
+            int index;
+            if (narrowing)
+            {
+                // No record before the previous first match can match the longer query either.
+                index = lastResult.length == 0 ? -1 : RecyclerQueries.Find(snapshot, query, lastResult[0], cancelled);
+            }
+            else
+            {
+                index = RecyclerQueries.Find(snapshot, query, 0, cancelled);
+            }
+            result = index < 0 ? new int[0] : new int[] { index };
+        }
+        else
+        {
+            result = RecyclerQueries.Filter(snapshot, query, narrowing ? lastResult : null, cancelled);
+        }
+        lastQuery = lowerQuery;
+        lastVersion = snapshot.getVersion();
+        lastResult = result;
+        return result;
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed size, lock free histogram of latencies measured in nanoseconds. Each power of two range is split into
+ * 8 buckets, so any percentile read back from it is within roughly 12% of the real value while the histogram itself
+ * never uses more than a few kilobytes no matter how many samples are recorded.
+ */
+public class LatencyHistogram
+{
+    // Values below this are stored in a bucket of their own.
+    private static final int LINEAR_BUCKETS = 16;
+    // The number of buckets each power of two range is divided into.
+    private static final int SUB_BUCKETS = 8;
+    // Enough buckets to cover every positive long value.
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (63 - 4) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Adds a single measurement to the histogram.
+     * @param nanos The measured latency in nanoseconds.
+     */
+    public void Record(long nanos)
+    {
+        if (nanos < 0)
+        {
+            nanos = 0;
+        }
+        counts.incrementAndGet(BucketFor(nanos));
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * Finds the value below which the given fraction of the measurements fall.
+     * @param fraction The percentile as a fraction, for example 0.99 for the 99th percentile.
+     * @return The latency in nanoseconds, or 0 if nothing has been recorded.
+     */
+    public long Percentile(double fraction)
+    {
+        long samples = count.sum();
+        if (samples == 0)
+        {
+            return 0;
+        }
+        // The rank of the sample we are looking for, counting from 1.
+        long rank = Math.max(1, (long) Math.ceil(fraction * samples));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= rank)
+            {
+                // Report the top of the bucket, but never more than the largest value actually seen.
+                return Math.min(UpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    public long getTotalNanos()
+    {
+        return total.sum();
+    }
+
+    public long getMaxNanos()
+    {
+        return max.get();
+    }
+
+    // Clears every measurement.
+    public void Reset()
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            counts.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    // Works out which bucket a value belongs to.
+    private static int BucketFor(long value)
+    {
+        if (value < LINEAR_BUCKETS)
+        {
+            return (int) value;
+        }
+        // The position of the highest set bit, which is at least 4 as the value is at least 16.
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        // The next 3 bits below the highest one pick the bucket within this power of two.
+        int sub = (int) (value >> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    // The largest value that is stored in the given bucket.
+    private static long UpperBound(int bucket)
+    {
+        if (bucket < LINEAR_BUCKETS)
+        {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << (exponent - 3);
+        return lower + (1L << (exponent - 3)) - 1;
+    }
+}
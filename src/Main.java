@@ -1,5 +1,38 @@
 public class Main {
     public static void main(String[] args) {
+        // Serve the metrics report over HTTP when a port is given with -Drecyclers.metrics.port.
+        MetricsEndpoint.StartIfConfigured();
+        // Run as a read replica following another instance's change feed, with no window.
+        if (args.length > 0 && args[0].equals("--follow"))
+        {
+            ReplicaFollower.Run();
+            return;
+        }
+        // Print the records in one postcode region or range of business names, with no window. Sharded storage only
+        // reads the shards that can hold them.
+        if (args.length > 1 && args[0].equals("--region"))
+        {
+            Recycler[] matches = FileManager.Create().ReadRegion(args[1]);
+            for (Recycler match : matches == null ? new Recycler[0] : matches)
+            {
+                System.out.println(match);
+            }
+            return;
+        }
+        // Add every record from another data file, or delete every record whose recycled products match, in one batch
+        // and one save, with no window.
+        if (args.length > 1 && args[0].equals("--import"))
+        {
+            int added = BulkEdit.Import(args[1]);
+            System.out.println(added < 0 ? "Nothing was imported." : added + " entries imported.");
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--delete-matching"))
+        {
+            int deleted = BulkEdit.DeleteMatching(args[1]);
+            System.out.println(deleted < 0 ? "Nothing was deleted." : deleted + " entries deleted.");
+            return;
+        }
         new MainForm();
     }
 }
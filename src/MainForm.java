@@ -2,6 +2,8 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Main class which inherits(extends) from the JFrame class. By doing this MainForm class gets access to all the pre-written
@@ -12,8 +14,8 @@ import java.util.Arrays;
 public class MainForm extends JFrame implements ActionListener
 {
 
-    // Create a new file manager class for reading and writing to the data file.
-    FileManager file = new FileManager();
+    // The file manager class used for reading and writing to the data file.
+    FileManager file;
 
     // Creating the class object we will use for laying out components on screen.
     SpringLayout layout = new SpringLayout();
@@ -34,10 +36,27 @@ public class MainForm extends JFrame implements ActionListener
     JButton btnFind;
     JTextField txtFind;
     JButton btnExit;
+    JButton btnDiagnostics;
+    JButton btnUndo, btnRedo;
+    JButton btnLookup;
+    JButton btnDeleteSeveral;
+    JLabel lblStatus;
 
-    // Declare an array which can store up to a hundred Recycler objects.
-    Recycler[] recyclers = new Recycler[100];
-    // Keeps track of how many entries are currently filled out in the array.
+    // The number of records read from the file before they are handed over to the form during startup.
+    static final int LOAD_BATCH_SIZE = 500;
+    // The most filter matches printed while typing, so very broad filters still update quickly.
+    static final int LIVE_FILTER_LIMIT = 500;
+
+    /**
+     * Holds the Recycler objects as a series of immutable snapshots. Code that reads the records takes the current
+     * snapshot and works on that, so it is never affected by a save or delete happening at the same time.
+     */
+    RecyclerStore store = new RecyclerStore();
+    // Phone, website and address indexes over the store, built once loading finishes and kept up to date after that.
+    RecyclerIndexes indexes = new RecyclerIndexes(store);
+    // Recent find, filter and sort results, kept up to date as the store changes so repeated queries are instant.
+    QueryCache queryCache = new QueryCache(store);
+    // Keeps track of how many entries are currently in the store.
     int numberOfRecyclers = 0;
     // Tracks the current index in the array that we are viewing/interacting with.
     int CurrentRecycler = 0;
@@ -46,10 +65,41 @@ public class MainForm extends JFrame implements ActionListener
      *  or an edited entry.
      */
     boolean isNewEntry = true;
+    /**
+     * When the application is started with -Drecyclers.store.paged=true, records are served from a paged store that
+     * only keeps the business names in memory and loads full records on demand. Otherwise this stays null and the
+     * store above is used.
+     */
+    PagedRecyclerStore pagedStore;
+    // The fingerprint of the data file as it was when the records were loaded.
+    DataFileFingerprint loadedFingerprint;
+    // Logs every change for read replicas to follow when started with -Drecyclers.feed=true, otherwise null.
+    ChangeFeed feed;
+    // The listing last shown by the live filter, so it can be cleared when the filter field is emptied.
+    String liveFilterOutput;
+    /**
+     * Whether the form is being used by a person. When false, such as when the workload harness drives the form,
+     * the window is never shown and confirmation messages are skipped so nothing waits for a click.
+     */
+    boolean interactive;
+    // Released once the background load has finished, so code driving the form can wait for the data to be ready.
+    final CountDownLatch loadComplete = new CountDownLatch(1);
 
-    // MainForm constructor.
+    // MainForm constructor for normal use, reading the default data file and showing the window.
     public MainForm()
     {
+        this(FileManager.Create(), true);
+    }
+
+    /**
+     * MainForm constructor that lets the caller choose the data file and whether the window is shown.
+     * @param file The file manager for the data file to use.
+     * @param interactive True to show the window and confirmation messages, false to run the form unseen.
+     */
+    public MainForm(FileManager file, boolean interactive)
+    {
+        this.file = file;
+        this.interactive = interactive;
         // Triggers the set size command that is inherited from JFrame to set the size values of the form.
         setSize(720,520);
         /**
@@ -91,31 +141,19 @@ public class MainForm extends JFrame implements ActionListener
         // Invokes method that renders textarea and exit button.
         BuildOutputWindowSection();
 
-        // Reads the data from the file and stores it in the recyclers array.
-        recyclers = file.ReadDataFromFile();
-        // Checks how many entries wer in the recently inputted file.
-        UpdateNumberOfRecyclers();
-
-        // Checks if there is currently any entries in the array.
-        if (numberOfRecyclers > 0)
-        {
-            // If so, set the current entry value to the last index.
-            CurrentRecycler = numberOfRecyclers - 1;
-            /**
-             * Show the current entry on screen, we only want this to run from inside this if statement, or
-             * it will potentially crash.
-             */
-            displayCurrentRecycler();
-            // Set the save type to edit if there is data already.
-            isNewEntry = false;
-        }
-
         /**
          * Calls the method from the JFrame class that turns the frame on and makes it draw onto the screen.
          * This method needs to be done after all UI setup is completed otherwise odd errors can occur such as
          * missing components of components drawing in the wrong place etc.
+         * The window is shown before any data is read, so it appears straight away no matter how big the file is.
          */
-        setVisible(true);
+        if (interactive)
+        {
+            setVisible(true);
+        }
+
+        // Reads the data from the file on a background thread, showing the records as they arrive.
+        LoadRecyclersInBackground();
     }
 
     // Method for rendering header section of the GUI.
@@ -172,6 +210,10 @@ public class MainForm extends JFrame implements ActionListener
         add(btnFind);
         txtFind = UIBuilderLibrary.BuildJTextFieldInlineToRight(20,5,layout,btnFind);
         add(txtFind);
+        //Positions the Lookup button to the right of the find field. It looks the text up by phone, website or address.
+        btnLookup = UIBuilderLibrary.BuildJButtonInlineToRight(70,25,"Lookup",5,this,layout,txtFind);
+        btnLookup.setMargin(new Insets(0,0,0,0));
+        add(btnLookup);
     }
 
     // Method for rendering build new, save, and delete buttons.
@@ -183,6 +225,17 @@ public class MainForm extends JFrame implements ActionListener
         add(btnSave);
         btnDelete = UIBuilderLibrary.BuildJButtonInlineBelow(85,25,"Delete",5,this,layout,btnSave);
         add(btnDelete);
+        //Button that opens the live diagnostics window, placed to the right of the New button.
+        btnDiagnostics = UIBuilderLibrary.BuildJButtonInlineToRight(100,25,"Diagnostics",5,this,layout,btnNew);
+        add(btnDiagnostics);
+        //Undo and redo buttons placed to the right of the Save and Delete buttons.
+        btnUndo = UIBuilderLibrary.BuildJButtonInlineToRight(100,25,"Undo",5,this,layout,btnSave);
+        add(btnUndo);
+        btnRedo = UIBuilderLibrary.BuildJButtonInlineToRight(100,25,"Redo",5,this,layout,btnDelete);
+        add(btnRedo);
+        //Button that opens a list to choose several entries to delete at once, placed below the Delete and Redo buttons.
+        btnDeleteSeveral = UIBuilderLibrary.BuildJButtonInlineBelow(190,25,"Delete Several...",5,this,layout,btnDelete);
+        add(btnDeleteSeveral);
     }
 
     // Method for rendering navigation buttons.
@@ -243,40 +296,266 @@ public class MainForm extends JFrame implements ActionListener
         layout.putConstraint(SpringLayout.NORTH,btnExit,10,SpringLayout.SOUTH,scrollPane);
         layout.putConstraint(SpringLayout.EAST,btnExit,0,SpringLayout.EAST,scrollPane);
         add(btnExit);
+
+        //Add a status label showing the number of records, lined up with the bottom left edge of the scroll pane.
+        lblStatus = new JLabel(" ");
+        layout.putConstraint(SpringLayout.NORTH,lblStatus,14,SpringLayout.SOUTH,scrollPane);
+        layout.putConstraint(SpringLayout.WEST,lblStatus,0,SpringLayout.WEST,scrollPane);
+        add(lblStatus);
     }
 
-    // Update number of recyclers
-    private void UpdateNumberOfRecyclers()
+    /**
+     * Reads the data file on a background thread so the window can be used while it loads. Records are handed to the
+     * event dispatch thread in batches: the first entry is shown and the navigation and search buttons are enabled as
+     * soon as the first batch arrives, while the buttons that change the data stay disabled until the whole file has
+     * been read, so a save can never overwrite the file with only part of its data. If the file cannot be read to the
+     * end, they stay disabled and the records that were read can only be viewed.
+     */
+    private void LoadRecyclersInBackground()
     {
-        //Check if the recyclers array is null. If not, run the loop inside the if statement.
-        if(recyclers != null)
+        SetReadControlsEnabled(false);
+        SetEditControlsEnabled(false);
+        lblStatus.setText("Loading records...");
+
+        new SwingWorker<Boolean, Recycler[]>()
         {
-            //Cycle through the array of birthday records
-            for (int i = 0; i < recyclers.length; i++)
+            @Override
+            protected Boolean doInBackground()
             {
-                //If you find a record that is empty
-                if(recyclers[i] == null)
+                if (Boolean.getBoolean("recyclers.store.paged") && file.SupportsPaging())
                 {
-                    //Set the number of entries to be the number of whichever loop you are up to
-                    numberOfRecyclers = i;
-                    //Break out of the loop.
-                    break;
+                    // Index the file by business name and load full records on demand through a bounded cache. A
+                    // missing data file opens as an empty paged store, and the first save creates it.
+                    PagedRecyclerStore store = new PagedRecyclerStore(file.fileName,
+                            Integer.getInteger("recyclers.cache.size", 256), Integer.getInteger("recyclers.prefetch", 2));
+                    boolean opened = store.Open();
+                    pagedStore = store;
+                    return opened;
                 }
+                if (Boolean.getBoolean("recyclers.store.paged"))
+                {
+                    System.out.println("Paging is not available with this storage format, so every record is loaded "
+                            + "into memory.");
+                }
+                //A missing data file is a new, empty list rather than a failed load, so entries can be added and saved.
+                if (!file.GetDataFile().exists())
+                {
+                    return true;
+                }
+                // Read the file a batch at a time, publishing each batch to the process method below.
+                boolean read = file.ReadDataFromFile(LOAD_BATCH_SIZE, batch -> publish(batch));
+                //Fingerprint the data file before the edit buttons are enabled, so the saved indexes can be matched
+                //to the exact data that was loaded.
+                loadedFingerprint = read ? DataFileFingerprint.Of(file.GetDataFile()) : null;
+                return read;
             }
+
+            @Override
+            protected void process(List<Recycler[]> batches)
+            {
+                // Runs on the event dispatch thread, so it is safe to change the array and the form here.
+                for (Recycler[] batch : batches)
+                {
+                    AppendLoadedRecyclers(batch);
+                }
+            }
+
+            @Override
+            protected void done()
+            {
+                boolean loaded = false;
+                try
+                {
+                    loaded = get();
+                }
+                catch (Exception ex)
+                {
+                    //Print error message to console if an exception occurs
+                    System.out.println(ex.getMessage());
+                }
+                FinishLoading(loaded);
+                loadComplete.countDown();
+            }
+        }.execute();
+    }
+
+    // Adds a batch of records read during startup to the end of the store and updates the form.
+    private void AppendLoadedRecyclers(Recycler[] batch)
+    {
+        store.Load(batch);
+        boolean firstBatch = numberOfRecyclers == 0;
+        numberOfRecyclers = store.Size();
+        if (firstBatch)
+        {
+            // Show the first entry and let the user start navigating and searching straight away.
+            CurrentRecycler = 0;
+            displayCurrentRecycler();
+            isNewEntry = false;
+            SetReadControlsEnabled(true);
         }
-        //If the birthday array was null, likely due to a file read error
-        else
+        lblStatus.setText("Loading records... " + numberOfRecyclers + " loaded");
+    }
+
+    /**
+     * Called on the event dispatch thread once the background load has finished, successfully or not.
+     * @param loaded True if the whole data file was read. Otherwise the store only holds part of it, so the form is
+     *               left read-only and nothing is built or saved from the partial records.
+     */
+    private void FinishLoading(boolean loaded)
+    {
+        if (pagedStore != null)
+        {
+            numberOfRecyclers = pagedStore.Size();
+            if (numberOfRecyclers > 0)
+            {
+                CurrentRecycler = 0;
+                displayCurrentRecycler();
+                isNewEntry = false;
+            }
+        }
+        SetReadControlsEnabled(true);
+        SetEditControlsEnabled(loaded);
+        ShowRecordCount();
+        if (!loaded)
+        {
+            //The lookup indexes are never built from part of the file, so there is nothing to look records up in.
+            btnLookup.setEnabled(false);
+            lblStatus.setText("The data file could not be read. Showing " + numberOfRecyclers
+                    + " records read only; restart to try again.");
+        }
+
+        if (pagedStore == null && loaded)
+        {
+            //Load the phone, website and address indexes saved last time, or build them if the data file has changed,
+            //now the window is showing and the records are loaded.
+            indexes.LoadOrRebuildInBackground(store.GetSnapshot(), loadedFingerprint, file.GetIndexFile());
+            //Let sharded storage follow the edits from here on, so saving only rebuilds the shards they touched.
+            file.TrackChanges(store);
+            //Log every change from now on for read replicas, starting from the data that was just loaded.
+            if (Boolean.getBoolean("recyclers.feed") && !file.KeepsRecordOrder())
+            {
+                System.out.println("The change feed cannot be used with sharded storage, so it is switched off.");
+            }
+            else if (Boolean.getBoolean("recyclers.feed"))
+            {
+                feed = new ChangeFeed(file.GetCompanionFile(".feed"), file.GetCompanionFile(".checkpoint"));
+                store.AddChangeListener(feed);
+                feed.WriteCheckpoint(loadedFingerprint);
+            }
+        }
+        //Search the in-memory store as the user types in the find and filter fields. The buttons still work as before.
+        //Only when someone is typing: when the form is driven by the workload harness, searches started by setting
+        //the fields would move the form on their own between its steps and make the runs differ from each other.
+        if (pagedStore == null && interactive)
         {
-            //Create a new empty birthday array
-            recyclers = new Recycler[100];
-            //Set the number of entries to zero.
-            numberOfRecyclers = 0;
+            new IncrementalSearch(txtFind, store::GetSnapshot, true, this::ShowLiveFindResult);
+            new IncrementalSearch(txtFilter, store::GetSnapshot, false, this::ShowLiveFilterResults,
+                    this::ClearLiveFilterResults);
         }
     }
 
+    // Moves to the entry found while typing in the find field.
+    private void ShowLiveFindResult(RecyclerSnapshot snapshot, int[] matches)
+    {
+        //Ignore results from records that have since been changed, as the index may now point at another entry.
+        if (matches.length == 0 || snapshot != store.GetSnapshot())
+        {
+            return;
+        }
+        //Never replace a new entry or changes that have not been saved yet. The find button still moves the form.
+        if (HasUnsavedChanges())
+        {
+            return;
+        }
+        CurrentRecycler = matches[0];
+        isNewEntry = false;
+        displayCurrentRecycler();
+    }
+
+    // Lists the entries matching the filter field while the user is typing in it.
+    private void ShowLiveFilterResults(RecyclerSnapshot snapshot, int[] matches)
+    {
+        ShowFilterResults(snapshot, matches, LIVE_FILTER_LIMIT);
+        liveFilterOutput = txtOutput.getText();
+    }
+
+    // Clears the live filter listing once the filter field is emptied, unless something else has been shown since.
+    private void ClearLiveFilterResults()
+    {
+        if (liveFilterOutput != null && liveFilterOutput.equals(txtOutput.getText()))
+        {
+            txtOutput.setText("");
+        }
+        liveFilterOutput = null;
+    }
+
+    // Checks whether the entry fields hold a new entry or edits to the current entry that have not been saved.
+    private boolean HasUnsavedChanges()
+    {
+        if (isNewEntry)
+        {
+            return true;
+        }
+        if (CurrentRecycler >= numberOfRecyclers)
+        {
+            return false;
+        }
+        Recycler current = GetRecycler(CurrentRecycler);
+        return current == null
+                || !txtBusinessName.getText().equals(current.getBusinessName())
+                || !txtAddress.getText().equals(current.getAddress())
+                || !txtPhone.getText().equals(current.getPhone())
+                || !txtWebsite.getText().equals(current.getWebsite())
+                || !txtRecycles.getText().equals(current.getRecycles());
+    }
+
+    // Enables or disables the buttons that only read the data.
+    private void SetReadControlsEnabled(boolean enabled)
+    {
+        btnFirst.setEnabled(enabled);
+        btnPrev.setEnabled(enabled);
+        btnNext.setEnabled(enabled);
+        btnLast.setEnabled(enabled);
+        btnFind.setEnabled(enabled);
+        btnSort.setEnabled(enabled);
+        btnBinary.setEnabled(enabled);
+        btnFilter.setEnabled(enabled);
+        //The paged store has no indexes to look records up in.
+        btnLookup.setEnabled(enabled && pagedStore == null);
+    }
+
+    // Enables or disables the buttons that change the data and write it to the file.
+    private void SetEditControlsEnabled(boolean enabled)
+    {
+        btnNew.setEnabled(enabled);
+        btnSave.setEnabled(enabled);
+        btnDelete.setEnabled(enabled);
+        //The paged store rewrites its file on every change, so it has no batch delete. Say so on the button.
+        btnDeleteSeveral.setEnabled(enabled && pagedStore == null);
+        btnDeleteSeveral.setToolTipText(pagedStore == null ? null
+                : "Deleting several entries at once is not available while records are paged from disk. Run without "
+                + "-Drecyclers.store.paged, or use java Main --delete-matching <products>.");
+        UpdateUndoButtons(enabled);
+    }
+
+    // Only enables undo and redo when there is something to undo or redo. The paged store does not keep history.
+    private void UpdateUndoButtons(boolean enabled)
+    {
+        btnUndo.setEnabled(enabled && pagedStore == null && store.CanUndo());
+        btnRedo.setEnabled(enabled && pagedStore == null && store.CanRedo());
+    }
+
+    // Shows the number of records in the status label.
+    private void ShowRecordCount()
+    {
+        lblStatus.setText(numberOfRecyclers + (numberOfRecyclers == 1 ? " record" : " records"));
+    }
+
     // Displays the array element matching the index of the current entry variable on screen.
     private void displayCurrentRecycler()
     {
+        //Time how long it takes to show the entry so it shows up in the diagnostics.
+        Metrics.Timing start = Metrics.Start();
         //If this method was called when there is no data
         if(numberOfRecyclers == 0)
         {
@@ -288,11 +567,35 @@ public class MainForm extends JFrame implements ActionListener
             return;
         }
         //Otherwise, copy the details form the current entry index of the array to the form fields
-        txtBusinessName.setText(recyclers[CurrentRecycler].getBusinessName());
-        txtAddress.setText(recyclers[CurrentRecycler].getAddress());
-        txtPhone.setText(recyclers[CurrentRecycler].getPhone());
-        txtWebsite.setText(recyclers[CurrentRecycler].getWebsite());
-        txtRecycles.setText(recyclers[CurrentRecycler].getRecycles());
+        Recycler current = GetRecycler(CurrentRecycler);
+        //A paged store returns null if the record could not be read from the file.
+        if (current == null)
+        {
+            ClearEntryFields();
+            return;
+        }
+        txtBusinessName.setText(current.getBusinessName());
+        txtAddress.setText(current.getAddress());
+        txtPhone.setText(current.getPhone());
+        txtWebsite.setText(current.getWebsite());
+        txtRecycles.setText(current.getRecycles());
+        Metrics.Stop(Metrics.Operation.RENDER, start, 1);
+
+        //Load the neighbouring records in the background so Next and Prev don't have to wait on the file.
+        if (pagedStore != null)
+        {
+            pagedStore.Prefetch(CurrentRecycler);
+        }
+    }
+
+    // Gets the recycler at the given index from either the paged store or the current snapshot.
+    private Recycler GetRecycler(int index)
+    {
+        if (pagedStore != null)
+        {
+            return pagedStore.Get(index);
+        }
+        return store.GetSnapshot().Get(index);
     }
 
     // Clears all the form input fields.
@@ -312,6 +615,14 @@ public class MainForm extends JFrame implements ActionListener
         //Checks which component triggered the event by getting the source value from the ActionEvent data.
         //If the source matches the specified component in any of the if statements below, that statement runs.
 
+        // If diagnostics button is clicked, open the diagnostics window without changing the state of the form.
+        if (e.getSource() == btnDiagnostics)
+        {
+            new DiagnosticsDialog(this, () -> pagedStore != null ? pagedStore.getCache().toString()
+                    : queryCache.toString()).setVisible(true);
+            return;
+        }
+
         // If new and save buttons are not clicked.
         if (e.getSource() != btnNew && e.getSource() != btnSave)
         {
@@ -345,6 +656,18 @@ public class MainForm extends JFrame implements ActionListener
             DeleteRecycler();
         }
 
+        // If delete several button is clicked, let the user choose the entries to delete.
+        if (e.getSource() == btnDeleteSeveral)
+        {
+            ChooseRecyclersToDelete();
+        }
+
+        // If undo or redo button is clicked.
+        if (e.getSource() == btnUndo || e.getSource() == btnRedo)
+        {
+            UndoOrRedo(e.getSource() == btnUndo);
+        }
+
         // If first button is clicked.
         if (e.getSource() == btnFirst)
         {
@@ -391,67 +714,185 @@ public class MainForm extends JFrame implements ActionListener
         // If filter button is clicked.
         if(e.getSource() == btnFilter)
         {
-            //Set the text of the text area to a default starting line
-            txtOutput.setText("Entries matching search filter:");
-            //Cycle through all the birthday entries with data
-            for (int i = 0; i < numberOfRecyclers; i++)
-            {
-                //If the current element's ideas field contains the keyword given in the filter text field
-                //Both strings being compared need to have the same casing to match, which is why both were converted to lower case as part
-                //of the check.
-                if (recyclers[i].getRecycles().toLowerCase().contains(txtFilter.getText().toLowerCase()))
-                {
-                    //Print the matching entry to the text field.
-                    txtOutput.append("\n" + recyclers[i].toString());
-                }
-            }
+            FilterEntries();
         }
 
         // If find button is clicked.
         if (e.getSource() == btnFind)
         {
-            //Cycle through all the birthday entries with data
+            FindEntry();
+        }
+
+        // If lookup button is clicked.
+        if (e.getSource() == btnLookup)
+        {
+            LookupEntries();
+        }
+
+        // If exit button is clicked.
+        if(e.getSource() == btnExit)
+        {
+            System.exit(0);
+        }
+    }
+
+    // Method for listing every entry whose recycled products contain the text in the filter field.
+    private void FilterEntries()
+    {
+        Metrics.Timing start = Metrics.Start();
+        //Build the whole output first and set it in one go, which is much faster than appending line by line.
+        StringBuilder output = new StringBuilder("Entries matching search filter:");
+        if (pagedStore != null)
+        {
+            //Read the paged store's file straight through, one entry at a time, leaving its cache alone.
+            String query = txtFilter.getText().toLowerCase();
+            pagedStore.ForEach((current, index) -> {
+                if (RecyclerQueries.MatchesFilter(current, query))
+                {
+                    output.append("\n").append(current);
+                }
+            });
+        }
+        else
+        {
+            //Scan the current snapshot, in parallel when it is large, and print the matches in their original order.
+            RecyclerSnapshot snapshot = store.GetSnapshot();
+            int[] matches = queryCache.Filter(snapshot, txtFilter.getText());
+            Metrics.Stop(Metrics.Operation.FILTER, start, numberOfRecyclers);
+            ShowFilterResults(snapshot, matches, Integer.MAX_VALUE);
+            return;
+        }
+        Metrics.Stop(Metrics.Operation.FILTER, start, numberOfRecyclers);
+        Metrics.Timing renderStart = Metrics.Start();
+        txtOutput.setText(output.toString());
+        Metrics.Stop(Metrics.Operation.RENDER, renderStart, 1);
+    }
+
+    // Prints the entries matching a filter, up to the given limit, followed by a count of any that were left out.
+    private void ShowFilterResults(RecyclerSnapshot snapshot, int[] matches, int limit)
+    {
+        Metrics.Timing start = Metrics.Start();
+        StringBuilder output = new StringBuilder("Entries matching search filter:");
+        for (int i = 0; i < matches.length && i < limit; i++)
+        {
+            output.append("\n").append(snapshot.Get(matches[i]));
+        }
+        if (matches.length > limit)
+        {
+            output.append("\n... and ").append(matches.length - limit).append(" more. Press the filter button to list them all.");
+        }
+        txtOutput.setText(output.toString());
+        Metrics.Stop(Metrics.Operation.RENDER, start, Math.min(matches.length, limit));
+    }
+
+    // Method for moving to the first entry whose business name contains the text in the find field.
+    private void FindEntry()
+    {
+        Metrics.Timing start = Metrics.Start();
+        int index = -1;
+        if (pagedStore != null)
+        {
+            //The paged store answers this from its resident key column without loading any full records.
+            String query = txtFind.getText().toLowerCase();
             for (int i = 0; i < numberOfRecyclers; i++)
             {
-                //If the current element's ideas field contains the keyword given in the filter text field
-                //Both strings being compared need to have the same casing to match, which is why both were converted to lower case as part
-                //of the check.
-                if (recyclers[i].getBusinessName().toLowerCase().contains(txtFind.getText().toLowerCase()))
+                if (pagedStore.GetBusinessName(i).toLowerCase().contains(query))
                 {
-                    //Set the current entry to the index we were up to and display it before breaking the loop.
-                    CurrentRecycler = i;
-                    displayCurrentRecycler();
+                    index = i;
                     break;
                 }
             }
         }
+        else
+        {
+            //Scan the current snapshot, in parallel when it is large, for the first match, unless the same search was
+            //run before and is still cached.
+            index = queryCache.Find(store.GetSnapshot(), txtFind.getText());
+        }
+        Metrics.Stop(Metrics.Operation.FIND, start, numberOfRecyclers);
+        //Set the current entry to the index that was found and display it.
+        if (index >= 0)
+        {
+            CurrentRecycler = index;
+            displayCurrentRecycler();
+        }
+    }
 
-        // If exit button is clicked.
-        if(e.getSource() == btnExit)
+    /**
+     * Method for looking up the text in the find field in the phone, website or address indexes. Text made up of
+     * phone number characters is looked up as a phone number, text with a dot and no spaces as a website, and
+     * anything else as address words. Every match is listed and the first one is shown in the form.
+     */
+    private void LookupEntries()
+    {
+        String text = txtFind.getText().trim();
+        if (!indexes.IsReady())
         {
-            System.exit(0);
+            txtOutput.setText("The lookup indexes are still being built. Please try again in a moment.");
+            return;
+        }
+        Metrics.Timing start = Metrics.Start();
+        List<Recycler> matches;
+        String kind;
+        if (text.matches("[0-9 ()+\\-]+") && RecyclerIndexes.NormalizePhone(text).length() >= 6)
+        {
+            matches = indexes.FindByPhone(text);
+            kind = "phone number";
+        }
+        else if (text.contains(".") && !text.contains(" "))
+        {
+            matches = indexes.FindByWebsite(text);
+            kind = "website";
+        }
+        else
+        {
+            matches = indexes.FindByAddress(text);
+            kind = "address";
+        }
+        Metrics.Stop(Metrics.Operation.FIND, start, matches.size());
+
+        StringBuilder output = new StringBuilder("Entries matching " + kind + " " + text + ":");
+        for (Recycler match : matches)
+        {
+            output.append("\n").append(match);
+        }
+        txtOutput.setText(output.toString());
+
+        if (!matches.isEmpty())
+        {
+            //Find where the first match is in the current snapshot and show it in the form.
+            int position = indexes.PositionOf(store.GetSnapshot(), matches.get(0));
+            if (position >= 0)
+            {
+                CurrentRecycler = position;
+                displayCurrentRecycler();
+            }
         }
     }
 
     // Method for performing binary search.
     private void SortAndBinarySearchEntries(ActionEvent e) {
-        //Create an empty array that has a size equal to the number of entries in the birthday data array
-        Recycler[] sortedArray = new Recycler[numberOfRecyclers];
-        //Copy the entries from the main array to the new array. The number after each array name indicates which index
-        //to start reading to/writing from during the copy. The last value (number of entries) tells the method how may elements to copy across
-        //from these starting positions.
-        System.arraycopy(recyclers,0, sortedArray,0, numberOfRecyclers);
-        //Sort the provided array in ascending order.
-        Arrays.sort(sortedArray);
-
-        //Clears the text area and then write the first line of our output
-        txtOutput.setText(sortedArray[0].toString());
+        if (pagedStore != null)
+        {
+            SortAndBinarySearchPagedEntries(e);
+            return;
+        }
+        //Create a sorted copy of the entries, so sorting does not change the order in the store.
+        Recycler[] sortedArray;
+        Metrics.Timing sortStart = Metrics.Start();
+        //Copy and sort the current snapshot, reusing the sorted order kept with the indexes when nothing has changed.
+        sortedArray = queryCache.Sorted(store.GetSnapshot(), indexes::Sorted);
+        Metrics.Stop(Metrics.Operation.SORT, sortStart, sortedArray.length);
 
-        for (int i = 1; i < sortedArray.length; i++)
+        //Build the output first and then set it in one go, which is much faster than appending line by line.
+        Metrics.Timing renderStart = Metrics.Start();
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < sortedArray.length; i++)
         {
-            //Append (add to) the current text of the text area.
-            txtOutput.append("\n" + sortedArray[i].toString());
+            output.append(i == 0 ? "" : "\n").append(sortedArray[i]);
         }
+        txtOutput.setText(output.toString());
+        Metrics.Stop(Metrics.Operation.RENDER, renderStart, sortedArray.length);
 
         if (e.getSource() == btnBinary)
         {
@@ -470,33 +911,98 @@ public class MainForm extends JFrame implements ActionListener
         }
     }
 
+    // Sorts and binary searches the paged store, which only keeps the business names in memory. The names are sorted
+    // as a list of indexes and the full entries are read from the file in that order as the output is built.
+    private void SortAndBinarySearchPagedEntries(ActionEvent e)
+    {
+        Metrics.Timing sortStart = Metrics.Start();
+        int[] order = pagedStore.SortedOrder();
+        Metrics.Stop(Metrics.Operation.SORT, sortStart, order.length);
+
+        Metrics.Timing renderStart = Metrics.Start();
+        StringBuilder output = new StringBuilder();
+        pagedStore.ReadInOrder(order, current -> output.append(output.length() == 0 ? "" : "\n").append(current));
+        txtOutput.setText(output.toString());
+        Metrics.Stop(Metrics.Operation.RENDER, renderStart, order.length);
+
+        if (e.getSource() == btnBinary)
+        {
+            //Search the sorted business names for the name in the filter search box.
+            int index = pagedStore.BinarySearch(order, txtFilter.getText());
+            if (index < 0)
+            {
+                txtOutput.append("\n\n" + txtFilter.getText() + " was not found.");
+            }
+            else
+            {
+                txtOutput.append("\n\n" + txtFilter.getText() + " was found at index: " + index);
+            }
+        }
+    }
+
+    // Method for going back to the snapshot before the last change, or forward again after an undo.
+    private void UndoOrRedo(boolean undo)
+    {
+        boolean changed = undo ? store.Undo() : store.Redo();
+        if (!changed)
+        {
+            return;
+        }
+        numberOfRecyclers = store.Size();
+        //Keep the current entry within the records that exist after the change.
+        if (CurrentRecycler >= numberOfRecyclers)
+        {
+            CurrentRecycler = numberOfRecyclers - 1;
+        }
+        if (CurrentRecycler < 0)
+        {
+            CurrentRecycler = 0;
+        }
+        displayCurrentRecycler();
+        ShowRecordCount();
+        UpdateUndoButtons(true);
+        //Save the restored records to the file.
+        SaveStoreToFile();
+    }
+
     // Method for deleting an existing recycler.
     private void DeleteRecycler() {
-        //Cycle through the data array starting at the current entry(the one being removed), until the last entry with data.
-        for (int i = CurrentRecycler; i < numberOfRecyclers; i++)
+        //The paged store removes the entry and rewrites the file itself.
+        if (pagedStore != null)
         {
-            //If the current index is the last entry with data
-            if (i == numberOfRecyclers -1)
+            pagedStore.Delete(CurrentRecycler);
+            numberOfRecyclers = pagedStore.Size();
+            if (CurrentRecycler >= numberOfRecyclers)
             {
-                //Set the index to null and break the loop.
-                recyclers[i] = null;
-
-                //If the entry we are deleting is the last one in the array.
-                if (CurrentRecycler == numberOfRecyclers -1)
-                {
-                    //Because we are deleting the last entry, reduce set the current
-                    CurrentRecycler--;
-                }
-                break;
+                CurrentRecycler = numberOfRecyclers - 1;
             }
-            //Copy the contents of the next index in the array into the current index's position.
-            recyclers[i] = recyclers[i +1];
+            displayCurrentRecycler();
+            ShowRecordCount();
+            return;
         }
-        //Decrease the number of entries to reflect that an entry has been removed
-        numberOfRecyclers--;
+        //Publish a new snapshot without the current entry. Anything still reading the old snapshot is unaffected.
+        store.Delete(CurrentRecycler);
+        //If the entry we are deleting is the last one, move the current entry back by one.
+        if (CurrentRecycler == numberOfRecyclers -1)
+        {
+            CurrentRecycler--;
+        }
+        //Update the number of entries to reflect that an entry has been removed
+        numberOfRecyclers = store.Size();
         //Display the new current entry and save the changes to the file.
         displayCurrentRecycler();
-        file.WriteDataToFile(recyclers);
+        ShowRecordCount();
+        UpdateUndoButtons(true);
+        SaveStoreToFile();
+    }
+
+    // Shows a confirmation message box, unless the form is being driven without anyone to click it.
+    private void ShowMessage(String message)
+    {
+        if (interactive)
+        {
+            JOptionPane.showMessageDialog(this, message);
+        }
     }
 
     // Method for creating a new recycler.
@@ -511,29 +1017,124 @@ public class MainForm extends JFrame implements ActionListener
         data.setWebsite(txtWebsite.getText());
         data.setRecycles(txtRecycles.getText());
 
-        if (isNewEntry)
+        //The paged store writes the change to the file itself.
+        if (pagedStore != null)
+        {
+            //There is no entry to update when the store is empty or the last entry was deleted, even if a button has
+            //cleared isNewEntry.
+            if (isNewEntry || CurrentRecycler < 0 || CurrentRecycler >= pagedStore.Size())
+            {
+                pagedStore.Add(data);
+                CurrentRecycler = pagedStore.Size() - 1;
+                numberOfRecyclers = pagedStore.Size();
+                ShowRecordCount();
+                ShowMessage("New Entry Saved Successfully.");
+            }
+            else
+            {
+                pagedStore.Set(CurrentRecycler, data);
+                ShowMessage("Selected Entry Updated.");
+            }
+            isNewEntry = false;
+            return;
+        }
+
+        //There is no entry to update when the store is empty or the last entry was deleted, even if a button has
+        //cleared isNewEntry, so add it instead.
+        if (isNewEntry || CurrentRecycler < 0 || CurrentRecycler >= store.Size())
         {
-            //Go to the next empty index of the recyclers array. This empty index will share the same value as the
-            //numberOfRecyclers counter, so we can use it to specify the correct index.
-            recyclers[numberOfRecyclers] = data;
+            //Add the entry to the end of the store. Its index will share the same value as the numberOfRecyclers counter.
+            store.Add(data);
             //Set the CurrentRecycler value to the number of entries value. This will let our application know that this is the
             //number current index being shown on screen.
             CurrentRecycler = numberOfRecyclers;
-            //Increase the number of entries by one to indicate a new value has been entered and therefore this value is now higher.
-            numberOfRecyclers++;
+            //Update the number of entries to indicate a new value has been entered and therefore this value is now higher.
+            numberOfRecyclers = store.Size();
             //Show message box to confirm completion of save
-            JOptionPane.showMessageDialog(this, "New Entry Saved Successfully.");
+            ShowMessage("New Entry Saved Successfully.");
         }
         else
         {
             //Save the data over the existing data at the current index element.
-            recyclers[CurrentRecycler] = data;
+            store.Set(CurrentRecycler, data);
             //Show message box to confirm completion of update
-            JOptionPane.showMessageDialog(this, "Selected Entry Updated.");
+            ShowMessage("Selected Entry Updated.");
         }
         isNewEntry = false;
 
-        //Pass the birthday data to the file manager to be written to the .csv file.
-        file.WriteDataToFile(recyclers);
+        ShowRecordCount();
+        UpdateUndoButtons(true);
+        //Pass the current snapshot to the file manager to be written to the .csv file.
+        SaveStoreToFile();
+    }
+
+    /**
+     * Method for choosing several entries to delete at once. Lists the entries matching the filter field, or every
+     * entry if the filter field is empty.
+     */
+    private void ChooseRecyclersToDelete()
+    {
+        RecyclerSnapshot snapshot = store.GetSnapshot();
+        int[] candidates;
+        if (txtFilter.getText().isEmpty())
+        {
+            candidates = new int[snapshot.Size()];
+            for (int i = 0; i < candidates.length; i++)
+            {
+                candidates[i] = i;
+            }
+        }
+        else
+        {
+            candidates = queryCache.Filter(snapshot, txtFilter.getText());
+        }
+        new BatchDeleteDialog(this, snapshot, candidates, chosen -> DeleteRecyclers(snapshot, chosen)).setVisible(true);
+    }
+
+    /**
+     * Method for deleting several entries in one step. The entries are removed in a single pass, the indexes are
+     * updated once, one undo step is recorded and the file is written once, however many entries are deleted.
+     * @param snapshot The snapshot the entries were chosen from.
+     * @param indexes The indexes of the entries in that snapshot.
+     */
+    private void DeleteRecyclers(RecyclerSnapshot snapshot, int[] indexes)
+    {
+        RecyclerBatch batch = new RecyclerBatch(snapshot);
+        //Count the deleted entries before the current one, so the same entry stays current if it is not deleted.
+        int deletedBefore = 0;
+        for (int index : indexes)
+        {
+            batch.Delete(index);
+            if (index < CurrentRecycler)
+            {
+                deletedBefore++;
+            }
+        }
+        try
+        {
+            store.ApplyBatch(batch);
+        }
+        catch (IllegalStateException ex)
+        {
+            ShowMessage("The entries changed while you were choosing. Please try again.");
+            return;
+        }
+        numberOfRecyclers = store.Size();
+        CurrentRecycler = Math.max(0, Math.min(CurrentRecycler - deletedBefore, numberOfRecyclers - 1));
+        displayCurrentRecycler();
+        ShowRecordCount();
+        UpdateUndoButtons(true);
+        SaveStoreToFile();
+        ShowMessage(batch.getDeleteCount() + " entries deleted.");
+    }
+
+    // Saves the current records to the data file and, when the change feed is on, marks the feed as saved up to here.
+    private void SaveStoreToFile()
+    {
+        file.WriteDataToFile(store.GetSnapshot());
+        if (feed != null)
+        {
+            feed.WriteCheckpoint(DataFileFingerprint.Of(file.GetDataFile()));
+        }
     }
 }
@@ -0,0 +1,207 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Central place for timing the application's hot paths. Code being measured calls Start() before the work and
+ * Stop() after it. The measurement is added to an in-process latency histogram when metrics are enabled and is
+ * written as an OperationEvent when a Flight Recorder recording that includes it is running, whether it was started
+ * with -XX:StartFlightRecording, jcmd or from code.
+ *
+ * When neither is switched on, Start() returns null without reading the clock and Stop() returns straight away,
+ * so leaving the calls in place costs no more than reading a flag and asking Flight Recorder if the event is on.
+ * Metrics can be switched on at startup with -Drecyclers.metrics=true, and are switched on when the
+ * diagnostics panel is opened.
+ */
+public class Metrics
+{
+    /**
+     * The operations that are timed. Each one has its own histogram and error counter.
+     */
+    public enum Operation
+    {
+        LOAD("load"),
+        PARSE("parse"),
+        WRITE("write"),
+        SORT("sort"),
+        FIND("find"),
+        FILTER("filter"),
+        RENDER("render"),
+        REPLICATE("replicate");
+
+        final String label;
+
+        Operation(String label)
+        {
+            this.label = label;
+        }
+    }
+
+    // Whether measurements are added to the histograms.
+    private static volatile boolean enabled = Boolean.getBoolean("recyclers.metrics");
+    // Used only to ask Flight Recorder whether OperationEvents are being recorded. This is the check Flight Recorder
+    // itself makes before committing an event, so it is cheap and covers recordings started before this class loaded.
+    private static final OperationEvent probe = new OperationEvent();
+    // The time the counters were last cleared, used to work out throughput.
+    private static volatile long resetTime = System.nanoTime();
+
+    private static final LatencyHistogram[] histograms = new LatencyHistogram[Operation.values().length];
+    private static final LongAdder[] records = new LongAdder[Operation.values().length];
+    private static final LongAdder[] errors = new LongAdder[Operation.values().length];
+
+    static
+    {
+        for (int i = 0; i < histograms.length; i++)
+        {
+            histograms[i] = new LatencyHistogram();
+            records[i] = new LongAdder();
+            errors[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * An operation that is being measured, returned by Start() and handed back to Stop().
+     */
+    public static final class Timing
+    {
+        // The time the operation started, from System.nanoTime().
+        final long start;
+        // The Flight Recorder event that was begun with the operation, or null if none is being recorded.
+        final OperationEvent event;
+
+        Timing(long start, OperationEvent event)
+        {
+            this.start = start;
+            this.event = event;
+        }
+    }
+
+    /**
+     * Marks the start of an operation. When Flight Recorder is recording OperationEvents, the event is begun here so
+     * its start time and duration are those of the operation itself.
+     * @return The timing to pass to Stop(), or null if nothing is being measured.
+     */
+    public static Timing Start()
+    {
+        boolean recording = IsRecording();
+        if (!enabled && !recording)
+        {
+            return null;
+        }
+        OperationEvent event = null;
+        if (recording)
+        {
+            event = new OperationEvent();
+            event.begin();
+        }
+        return new Timing(System.nanoTime(), event);
+    }
+
+    /**
+     * Marks the end of an operation and records how long it took.
+     * @param operation The operation that finished.
+     * @param timing The value returned by Start() when the operation began.
+     * @param recordCount The number of records the operation worked on.
+     */
+    public static void Stop(Operation operation, Timing timing, int recordCount)
+    {
+        if (timing == null)
+        {
+            return;
+        }
+        if (enabled)
+        {
+            histograms[operation.ordinal()].Record(System.nanoTime() - timing.start);
+            records[operation.ordinal()].add(recordCount);
+        }
+        OperationEvent event = timing.event;
+        if (event != null)
+        {
+            // Ending the event before asking whether to commit it lets the recording's duration threshold apply.
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.operation = operation.label;
+                event.records = recordCount;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Counts a failed operation. Errors are always counted, as they are rare and worth knowing about.
+     * @param operation The operation that failed.
+     */
+    public static void RecordError(Operation operation)
+    {
+        errors[operation.ordinal()].increment();
+    }
+
+    // Checks whether a running recording has OperationEvents switched on.
+    private static boolean IsRecording()
+    {
+        return probe.isEnabled();
+    }
+
+    public static boolean IsEnabled()
+    {
+        return enabled;
+    }
+
+    public static void SetEnabled(boolean value)
+    {
+        if (value && !enabled)
+        {
+            // Start measuring throughput from the moment metrics were switched on.
+            resetTime = System.nanoTime();
+        }
+        enabled = value;
+    }
+
+    public static LatencyHistogram GetHistogram(Operation operation)
+    {
+        return histograms[operation.ordinal()];
+    }
+
+    public static long GetErrors(Operation operation)
+    {
+        return errors[operation.ordinal()].sum();
+    }
+
+    // Clears every histogram and counter.
+    public static void Reset()
+    {
+        for (int i = 0; i < histograms.length; i++)
+        {
+            histograms[i].Reset();
+            records[i].reset();
+            errors[i].reset();
+        }
+        resetTime = System.nanoTime();
+    }
+
+    /**
+     * Builds a plain text table of the current measurements, one line per operation.
+     * @return The formatted report.
+     */
+    public static String Report()
+    {
+        double seconds = Math.max(1e-9, (System.nanoTime() - resetTime) / 1e9);
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-8s %8s %10s %10s %10s %10s %8s%n",
+                "op", "count", "p50(ms)", "p99(ms)", "max(ms)", "rec/s", "errors"));
+        for (Operation operation : Operation.values())
+        {
+            LatencyHistogram histogram = histograms[operation.ordinal()];
+            report.append(String.format("%-8s %8d %10.3f %10.3f %10.3f %10.1f %8d%n",
+                    operation.label,
+                    histogram.getCount(),
+                    histogram.Percentile(0.50) / 1e6,
+                    histogram.Percentile(0.99) / 1e6,
+                    histogram.getMaxNanos() / 1e6,
+                    records[operation.ordinal()].sum() / seconds,
+                    errors[operation.ordinal()].sum()));
+        }
+        report.append(enabled ? "Metrics enabled" : "Metrics disabled");
+        report.append(IsRecording() ? ", Flight Recorder recording" : "");
+        return report.toString();
+    }
+}
@@ -0,0 +1,54 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A tiny HTTP endpoint serving the Metrics report as plain text at /metrics, for when there is no window to show
+ * the diagnostics panel in. Started by setting -Drecyclers.metrics.port, it only listens on the loopback address.
+ */
+public class MetricsEndpoint
+{
+    /**
+     * Starts serving the metrics report if a port was given with -Drecyclers.metrics.port. Every entry point calls
+     * this before doing anything else, so the report is available whichever way the application was started.
+     * @return The running server, or null if no port was given or it could not be started.
+     */
+    public static HttpServer StartIfConfigured()
+    {
+        Integer port = Integer.getInteger("recyclers.metrics.port");
+        return port == null ? null : Start(port);
+    }
+
+    /**
+     * Starts serving the metrics report and switches metrics collection on.
+     * @param port The port to listen on.
+     * @return The running server, or null if it could not be started.
+     */
+    public static HttpServer Start(int port)
+    {
+        try
+        {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = Metrics.Report().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream output = exchange.getResponseBody())
+                {
+                    output.write(body);
+                }
+            });
+            server.start();
+            Metrics.SetEnabled(true);
+            return server;
+        }
+        catch (Exception ex)
+        {
+            //Print error message to console if an exception occurs
+            System.out.println(ex.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event written each time a timed operation finishes. These events only cost anything while a
+ * recording is running, for example after starting the application with -XX:StartFlightRecording, and can then be
+ * viewed in JDK Mission Control alongside the JVM's own events. The event is begun when the operation starts and
+ * ended when it finishes, so its start time and duration are the operation's, and a recording's threshold setting
+ * leaves out the quick ones.
+ */
+@Name("LocalRecyclers.Operation")
+@Label("Recycler Operation")
+@Category("Local Recyclers")
+@Description("A timed load, parse, write, sort, find, filter or render operation.")
+@StackTrace(false)
+public class OperationEvent extends jdk.jfr.Event
+{
+    @Label("Operation")
+    String operation;
+
+    @Label("Records")
+    @Description("The number of records the operation worked on.")
+    int records;
+}
@@ -0,0 +1,553 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Record store that keeps only a compact key column (the business names) and the position of each record in the
+ * data file in memory. Full Recycler objects are read from the file when they are asked for and kept in a bounded
+ * LRU cache, so the amount of memory used by full records is set by configuration rather than by the size of the file.
+ * Operations over every record, such as sorting and filtering, work from the key column or read the file straight
+ * through rather than going through the cache, so they never push out the records being viewed.
+ *
+ * The store can be switched on by starting the application with -Drecyclers.store.paged=true. The cache size and the
+ * number of neighbouring records prefetched on each side of the current record can be set with
+ * -Drecyclers.cache.size and -Drecyclers.prefetch.
+ */
+public class PagedRecyclerStore
+{
+    // The charset used by FileReader/FileWriter in FileManager, so both classes read and write the same bytes.
+    private static final Charset CHARSET = Charset.defaultCharset();
+    // How much of the data file Open() reads at a time while looking for line breaks.
+    private static final int SCAN_CHUNK_SIZE = 64 * 1024;
+
+    // The data file this store reads its records from.
+    private final String fileName;
+    // The cache holding the full Recycler objects that have been read recently.
+    private final RecyclerCache cache;
+    // How many records either side of the current one are loaded in the background when navigating.
+    private final int prefetchRadius;
+
+    // The resident key column. Only the business name of each record is kept in memory.
+    private String[] businessNames = new String[100];
+    /**
+     * The byte position in the file where each record starts. The entry after the last record holds the end of the
+     * data, so the length of record i is always offsets[i + 1] - offsets[i].
+     */
+    private long[] offsets = new long[101];
+    // The number of records currently in the store.
+    private int size = 0;
+    // Whether the last record in the file is followed by a line break, so appending knows if it must add one first.
+    private boolean endsWithLineBreak = true;
+    /**
+     * Increased every time the store is changed. Prefetch tasks remember the version they started with and throw
+     * their result away if the store has changed since, as the index they were loading may now point to another record.
+     */
+    private long version = 0;
+
+    // A single background thread used to load neighbouring records without holding up the UI.
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "recycler-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates a paged store over a data file. Call Open() before using it.
+     * @param fileName The data file to read records from.
+     * @param cacheSize The maximum number of full Recycler objects to keep in memory.
+     * @param prefetchRadius The number of records either side of the current record to load ahead of time.
+     */
+    public PagedRecyclerStore(String fileName, int cacheSize, int prefetchRadius)
+    {
+        this.fileName = fileName;
+        this.cache = new RecyclerCache(cacheSize);
+        this.prefetchRadius = Math.max(0, prefetchRadius);
+    }
+
+    /**
+     * Scans the data file once, keeping the business name and file position of each record. The file is read in
+     * 64KB chunks and each chunk searched for line breaks, rather than going through the stream a byte at a time.
+     * @return True if the file was read, false if an error occurred.
+     */
+    public synchronized boolean Open()
+    {
+        Metrics.Timing start = Metrics.Start();
+        size = 0;
+        version++;
+        cache.Clear();
+        File data = new File(fileName);
+        if (!data.exists())
+        {
+            // A missing file is treated the same as an empty one. It will be created on the first save.
+            offsets[0] = 0;
+            return true;
+        }
+        try (InputStream input = new FileInputStream(data))
+        {
+            byte[] chunk = new byte[SCAN_CHUNK_SIZE];
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long position = 0;
+            long lineStart = 0;
+            int read;
+            int last = '\n';
+            while ((read = input.read(chunk)) != -1)
+            {
+                // Copy each finished line out of the chunk in one go, and carry the unfinished end over to the next.
+                int from = 0;
+                for (int i = 0; i < read; i++)
+                {
+                    if (chunk[i] == '\n')
+                    {
+                        line.write(chunk, from, i - from);
+                        AddKey(KeyFromLine(line), lineStart);
+                        line.reset();
+                        from = i + 1;
+                        lineStart = position + from;
+                    }
+                }
+                line.write(chunk, from, read - from);
+                if (read > 0)
+                {
+                    last = chunk[read - 1];
+                }
+                position += read;
+            }
+            // Keep a final record that was not followed by a line break.
+            if (line.size() > 0)
+            {
+                AddKey(KeyFromLine(line), lineStart);
+            }
+            endsWithLineBreak = last == '\n';
+            offsets[size] = position;
+            Metrics.Stop(Metrics.Operation.LOAD, start, size);
+            return true;
+        }
+        catch (Exception ex)
+        {
+            //Count the failure and print error message to console if an exception occurs
+            Metrics.RecordError(Metrics.Operation.LOAD);
+            System.out.println(ex.getMessage());
+            return false;
+        }
+    }
+
+    public synchronized int Size()
+    {
+        return size;
+    }
+
+    /**
+     * Gets the business name of a record from the resident key column. This never touches the file or the cache.
+     * @param index The index of the record.
+     * @return The business name of the record.
+     */
+    public synchronized String GetBusinessName(int index)
+    {
+        return businessNames[index];
+    }
+
+    /**
+     * Gets a full Recycler object, reading it from the file if it is not already in the cache.
+     * @param index The index of the record.
+     * @return The Recycler at the index, or null if it could not be read.
+     */
+    public synchronized Recycler Get(int index)
+    {
+        Recycler data = cache.Get(index);
+        if (data == null)
+        {
+            data = ReadRecord(index);
+            if (data != null)
+            {
+                cache.Put(index, data);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Works out the order of the records sorted by business name, ignoring case, from the resident key column alone.
+     * Records with the same name keep their file order, the same as sorting the full records would give.
+     * @return The indexes of the records in sorted order.
+     */
+    public synchronized int[] SortedOrder()
+    {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++)
+        {
+            order[i] = i;
+        }
+        String[] names = businessNames;
+        Arrays.sort(order, (a, b) -> names[a].compareToIgnoreCase(names[b]));
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++)
+        {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    /**
+     * Searches for a business name in the order returned by SortedOrder(), using only the key column.
+     * @param order The sorted order, taken since the store last changed.
+     * @param businessName The name to look for, in any case.
+     * @return The position in the order of a record with the name, or (-(insertion point) - 1) if there is none,
+     *         the same as Arrays.binarySearch.
+     */
+    public synchronized int BinarySearch(int[] order, String businessName)
+    {
+        int low = 0;
+        int high = order.length - 1;
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            int comparison = businessNames[order[middle]].compareToIgnoreCase(businessName);
+            if (comparison < 0)
+            {
+                low = middle + 1;
+            }
+            else if (comparison > 0)
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Reads records in the given order through a single open file, without using the cache.
+     * @param order The indexes of the records to read, such as the result of SortedOrder().
+     * @param action Receives each record in turn.
+     */
+    public synchronized void ReadInOrder(int[] order, Consumer<Recycler> action)
+    {
+        try (RandomAccessFile input = new RandomAccessFile(fileName, "r"))
+        {
+            for (int index : order)
+            {
+                action.accept(ReadRecord(input, offsets[index], offsets[index + 1]));
+            }
+        }
+        catch (Exception ex)
+        {
+            //Count the failure and print error message to console if an exception occurs
+            Metrics.RecordError(Metrics.Operation.PARSE);
+            System.out.println(ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads every record in file order in one pass straight through the file, without using the cache, so only one
+     * record is held in memory at a time.
+     * @param action Receives each record and its index.
+     */
+    public synchronized void ForEach(ObjIntConsumer<Recycler> action)
+    {
+        if (size == 0)
+        {
+            return;
+        }
+        try (InputStream input = new BufferedInputStream(new FileInputStream(fileName), 1 << 16))
+        {
+            for (int i = 0; i < size; i++)
+            {
+                byte[] line = new byte[(int) (offsets[i + 1] - offsets[i])];
+                if (input.readNBytes(line, 0, line.length) != line.length)
+                {
+                    throw new IllegalStateException(fileName + " is shorter than expected.");
+                }
+                action.accept(FileManager.ParseRecycler(TrimLineBreak(line)), i);
+            }
+        }
+        catch (Exception ex)
+        {
+            //Count the failure and print error message to console if an exception occurs
+            Metrics.RecordError(Metrics.Operation.PARSE);
+            System.out.println(ex.getMessage());
+        }
+    }
+
+    /**
+     * Loads the records either side of the given index into the cache on a background thread, so that pressing
+     * Next or Prev afterwards is answered from memory.
+     * @param index The index of the record currently being viewed.
+     */
+    public void Prefetch(int index)
+    {
+        if (prefetchRadius == 0)
+        {
+            return;
+        }
+        long startVersion;
+        synchronized (this)
+        {
+            startVersion = version;
+        }
+        prefetcher.execute(() -> {
+            // Load the nearest neighbours first as they are the most likely to be viewed next.
+            for (int distance = 1; distance <= prefetchRadius; distance++)
+            {
+                PrefetchOne(index + distance, startVersion);
+                PrefetchOne(index - distance, startVersion);
+            }
+        });
+    }
+
+    /**
+     * Adds a new record to the end of the store by appending it to the data file.
+     * @param data The Recycler to add.
+     */
+    public synchronized void Add(Recycler data)
+    {
+        Metrics.Timing writeStart = Metrics.Start();
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(fileName, true)))
+        {
+            long start = offsets[size];
+            if (!endsWithLineBreak)
+            {
+                // The previous last line had no line break, so add one before starting the new line.
+                output.write(System.lineSeparator().getBytes(CHARSET));
+                start += System.lineSeparator().getBytes(CHARSET).length;
+            }
+            byte[] line = (data.toString() + System.lineSeparator()).getBytes(CHARSET);
+            output.write(line);
+            AddKey(data.getBusinessName(), start);
+            Metrics.Stop(Metrics.Operation.WRITE, writeStart, 1);
+            offsets[size] = start + line.length;
+            endsWithLineBreak = true;
+            version++;
+            cache.Put(size - 1, data);
+        }
+        catch (Exception ex)
+        {
+            //Count the failure and print error message to console if an exception occurs
+            Metrics.RecordError(Metrics.Operation.WRITE);
+            System.out.println(ex.getMessage());
+        }
+    }
+
+    /**
+     * Replaces an existing record and rewrites the data file.
+     * @param index The index of the record to replace.
+     * @param data The new values for the record.
+     */
+    public synchronized void Set(int index, Recycler data)
+    {
+        Rewrite(index, data, -1);
+        cache.Put(index, data);
+    }
+
+    /**
+     * Removes a record and rewrites the data file.
+     * @param index The index of the record to remove.
+     */
+    public synchronized void Delete(int index)
+    {
+        Rewrite(-1, null, index);
+        // Every record after the deleted one has moved down an index, so the cached keys are no longer correct.
+        cache.Clear();
+    }
+
+    // Exposes the cache so its size and hit/miss counters can be shown.
+    public RecyclerCache getCache()
+    {
+        return cache;
+    }
+
+    public long getHits()
+    {
+        return cache.getHits();
+    }
+
+    public long getMisses()
+    {
+        return cache.getMisses();
+    }
+
+    /**
+     * Loads a single neighbour into the cache, unless it is out of range, already cached or the store has changed.
+     * The file is read without holding the lock, so a Get() from the window never waits behind a prefetch. The
+     * record is only cached if the store has not changed in the meantime, as the file may have been rewritten.
+     */
+    private void PrefetchOne(int index, long startVersion)
+    {
+        long from;
+        long to;
+        synchronized (this)
+        {
+            if (version != startVersion || index < 0 || index >= size || cache.Contains(index))
+            {
+                return;
+            }
+            from = offsets[index];
+            to = offsets[index + 1];
+        }
+        Recycler data = ReadRecord(from, to);
+        synchronized (this)
+        {
+            if (data != null && version == startVersion && !cache.Contains(index))
+            {
+                cache.Put(index, data);
+            }
+        }
+    }
+
+    // Reads a single record straight from its position in the file.
+    private Recycler ReadRecord(int index)
+    {
+        return ReadRecord(offsets[index], offsets[index + 1]);
+    }
+
+    // Reads the record stored between two positions in the file.
+    private Recycler ReadRecord(long from, long to)
+    {
+        try (RandomAccessFile input = new RandomAccessFile(fileName, "r"))
+        {
+            return ReadRecord(input, from, to);
+        }
+        catch (Exception ex)
+        {
+            //Count the failure and print error message to console if an exception occurs
+            Metrics.RecordError(Metrics.Operation.PARSE);
+            System.out.println(ex.getMessage());
+            return null;
+        }
+    }
+
+    // Reads the record stored between two positions in an open file.
+    private static Recycler ReadRecord(RandomAccessFile input, long from, long to) throws Exception
+    {
+        Metrics.Timing start = Metrics.Start();
+        byte[] line = new byte[(int) (to - from)];
+        input.seek(from);
+        input.readFully(line);
+        Recycler data = FileManager.ParseRecycler(TrimLineBreak(line));
+        Metrics.Stop(Metrics.Operation.PARSE, start, 1);
+        return data;
+    }
+
+    /**
+     * Streams every record from the current file into a new one, replacing or skipping a single record on the way,
+     * then swaps the new file into place. Only one record is held in memory at a time.
+     */
+    private void Rewrite(int replaceIndex, Recycler replacement, int deleteIndex)
+    {
+        Metrics.Timing start = Metrics.Start();
+        File data = new File(fileName);
+        File temp = new File(fileName + ".tmp");
+        String[] newNames = new String[businessNames.length];
+        long[] newOffsets = new long[offsets.length];
+        int newSize = 0;
+        long position = 0;
+        byte[] separator = System.lineSeparator().getBytes(CHARSET);
+        try (InputStream input = new BufferedInputStream(new FileInputStream(data));
+             OutputStream output = new BufferedOutputStream(new FileOutputStream(temp)))
+        {
+            for (int i = 0; i < size; i++)
+            {
+                byte[] line = new byte[(int) (offsets[i + 1] - offsets[i])];
+                int read = input.readNBytes(line, 0, line.length);
+                if (read != line.length)
+                {
+                    throw new IllegalStateException(fileName + " changed while it was being rewritten.");
+                }
+                if (i == deleteIndex)
+                {
+                    continue;
+                }
+                byte[] content;
+                String name;
+                if (i == replaceIndex)
+                {
+                    content = replacement.toString().getBytes(CHARSET);
+                    name = replacement.getBusinessName();
+                }
+                else
+                {
+                    String text = TrimLineBreak(line);
+                    content = text.getBytes(CHARSET);
+                    name = text.split(";", 2)[0];
+                }
+                newNames[newSize] = name;
+                newOffsets[newSize] = position;
+                newSize++;
+                output.write(content);
+                output.write(separator);
+                position += content.length + separator.length;
+            }
+        }
+        catch (Exception ex)
+        {
+            //Count the failure, print error message to console and leave the original file untouched
+            Metrics.RecordError(Metrics.Operation.WRITE);
+            System.out.println(ex.getMessage());
+            temp.delete();
+            return;
+        }
+        try
+        {
+            Files.move(temp.toPath(), data.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (Exception ex)
+        {
+            Metrics.RecordError(Metrics.Operation.WRITE);
+            System.out.println(ex.getMessage());
+            return;
+        }
+        newOffsets[newSize] = position;
+        businessNames = newNames;
+        offsets = newOffsets;
+        size = newSize;
+        endsWithLineBreak = true;
+        version++;
+        Metrics.Stop(Metrics.Operation.WRITE, start, newSize);
+    }
+
+    // Adds a business name and file position to the key column, growing the arrays when they are full.
+    private void AddKey(String businessName, long offset)
+    {
+        if (size == businessNames.length)
+        {
+            businessNames = Arrays.copyOf(businessNames, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2 + 1);
+        }
+        businessNames[size] = businessName;
+        offsets[size] = offset;
+        size++;
+    }
+
+    // The business name is the first field on each line.
+    private static String KeyFromLine(ByteArrayOutputStream line)
+    {
+        return TrimLineBreak(line.toByteArray()).split(";", 2)[0];
+    }
+
+    // Decodes a line read from the file, dropping any trailing line break characters.
+    private static String TrimLineBreak(byte[] line)
+    {
+        int length = line.length;
+        while (length > 0 && (line[length - 1] == '\n' || line[length - 1] == '\r'))
+        {
+            length--;
+        }
+        return new String(line, 0, length, CHARSET);
+    }
+}
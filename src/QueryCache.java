@@ -0,0 +1,404 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A bounded least-recently-used cache of query results, so repeating a find, filter or sort that was run before
+ * returns straight away instead of scanning every record again. Results are keyed by the kind of query and its text
+ * in lower case, which is how the searches compare it, and hold record indexes rather than copies of the records.
+ *
+ * Each result is tagged with the version of the snapshot it was worked out from and is only used for that snapshot.
+ * Rather than throwing every result away when the records change, the cache listens to the store and patches each
+ * result with the changes, checking only the field the query depends on:
+ *  - a filter result depends on the recycled products, so editing a phone number leaves it untouched, while adding,
+ *    removing or editing the products of a record adds or removes that one index and shifts the indexes after it;
+ *  - a find result is the first index whose business name matches, and only has to be worked out again when that
+ *    record is removed or renamed so it no longer matches;
+ *  - the sorted list only depends on business names, so an edit that keeps the name just swaps the record in place.
+ * Large batches of changes drop the results instead, as patching them would cost more than running the queries again.
+ *
+ * The number of results kept can be set with -Drecyclers.query.cache (64 by default).
+ */
+public class QueryCache implements RecyclerStore.ChangeListener
+{
+    // Change notifications with more changes than this drop the cached results rather than patching them.
+    private static final int MAX_PATCH_CHANGES = 64;
+    // The key of the sorted list, which does not depend on any query text.
+    private static final String SORT_KEY = "sort";
+
+    // The kinds of query that can be cached.
+    private enum Kind
+    {
+        FILTER,
+        FIND,
+        SORT
+    }
+
+    // A cached result and the version of the snapshot it is correct for.
+    private static final class Result
+    {
+        final Kind kind;
+        // The lower case query text.
+        final String query;
+        long version;
+        // The matching indexes for FILTER, the single matching index or -1 for FIND.
+        int[] indexes;
+        // The sorted records for SORT.
+        Recycler[] sorted;
+
+        Result(Kind kind, String query, long version)
+        {
+            this.kind = kind;
+            this.query = query;
+            this.version = version;
+        }
+    }
+
+    private final RecyclerStore store;
+    private final int capacity;
+    private final LinkedHashMap<String, Result> entries;
+    // Counters for the hit rate, and for how many results were kept up to date or thrown away by changes.
+    private long hits = 0;
+    private long misses = 0;
+    private long patched = 0;
+    private long dropped = 0;
+
+    public QueryCache(RecyclerStore store)
+    {
+        this(store, Integer.getInteger("recyclers.query.cache", 64));
+    }
+
+    /**
+     * Creates an empty cache and starts listening to the store for changes.
+     * @param store The store the queries run against.
+     * @param capacity The maximum number of results to keep.
+     */
+    public QueryCache(RecyclerStore store, int capacity)
+    {
+        this.store = store;
+        this.capacity = Math.max(1, capacity);
+        this.entries = new LinkedHashMap<String, Result>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> eldest)
+            {
+                return size() > QueryCache.this.capacity;
+            }
+        };
+        store.AddChangeListener(this);
+    }
+
+    /**
+     * Finds every record whose recycled products contain the given text, as RecyclerQueries.Filter() does.
+     * @param snapshot The records to search.
+     * @param text The text to look for.
+     * @return The indexes of the matching records, in ascending order. The array must not be changed.
+     */
+    public int[] Filter(RecyclerSnapshot snapshot, String text)
+    {
+        String query = text.toLowerCase();
+        Result cached = Lookup(Kind.FILTER.name() + ":" + query, snapshot);
+        if (cached != null)
+        {
+            return cached.indexes;
+        }
+        Result result = new Result(Kind.FILTER, query, snapshot.getVersion());
+        result.indexes = RecyclerQueries.Filter(snapshot, text);
+        Store(Kind.FILTER.name() + ":" + query, result, snapshot);
+        return result.indexes;
+    }
+
+    /**
+     * Finds the first record whose business name contains the given text, as RecyclerQueries.Find() does.
+     * @param snapshot The records to search.
+     * @param text The text to look for.
+     * @return The index of the first matching record, or -1 if nothing matches.
+     */
+    public int Find(RecyclerSnapshot snapshot, String text)
+    {
+        String query = text.toLowerCase();
+        Result cached = Lookup(Kind.FIND.name() + ":" + query, snapshot);
+        if (cached != null)
+        {
+            return cached.indexes[0];
+        }
+        Result result = new Result(Kind.FIND, query, snapshot.getVersion());
+        result.indexes = new int[] { RecyclerQueries.Find(snapshot, text) };
+        Store(Kind.FIND.name() + ":" + query, result, snapshot);
+        return result.indexes[0];
+    }
+
+    /**
+     * Gets the records sorted by business name.
+     * @param snapshot The records to sort.
+     * @param sorter Sorts the records when there is no cached result.
+     * @return The sorted records. The array must not be changed.
+     */
+    public Recycler[] Sorted(RecyclerSnapshot snapshot, Function<RecyclerSnapshot, Recycler[]> sorter)
+    {
+        Result cached = Lookup(SORT_KEY, snapshot);
+        if (cached != null)
+        {
+            return cached.sorted;
+        }
+        Result result = new Result(Kind.SORT, "", snapshot.getVersion());
+        result.sorted = sorter.apply(snapshot);
+        Store(SORT_KEY, result, snapshot);
+        return result.sorted;
+    }
+
+    // Returns a result that is correct for the snapshot and counts the hit or miss.
+    private synchronized Result Lookup(String key, RecyclerSnapshot snapshot)
+    {
+        Result result = entries.get(key);
+        if (result != null && result.version == snapshot.getVersion())
+        {
+            hits++;
+            return result;
+        }
+        misses++;
+        return null;
+    }
+
+    // Caches a newly worked out result.
+    private synchronized void Store(String key, Result result, RecyclerSnapshot snapshot)
+    {
+        // A query that took a while may finish after a change has already brought its cached result up to date, so
+        // never replace a result for the current snapshot with one for an older snapshot.
+        Result existing = entries.get(key);
+        long currentVersion = store.GetSnapshot().getVersion();
+        if (existing != null && existing.version == currentVersion && snapshot.getVersion() != currentVersion)
+        {
+            return;
+        }
+        entries.put(key, result);
+    }
+
+    @Override
+    public synchronized void RecordsChanged(RecyclerSnapshot previous, RecyclerSnapshot snapshot,
+                                            List<RecyclerChange> changes)
+    {
+        for (Iterator<Result> iterator = entries.values().iterator(); iterator.hasNext(); )
+        {
+            Result result = iterator.next();
+            if (result.version == snapshot.getVersion())
+            {
+                // Worked out from the new snapshot after it was published, so it is already correct.
+                continue;
+            }
+            if (result.version != previous.getVersion())
+            {
+                // Worked out from a snapshot the changes were not made to, such as one from part way through loading,
+                // so the changes cannot be used to bring it up to date.
+                iterator.remove();
+                continue;
+            }
+            boolean kept = changes.size() <= MAX_PATCH_CHANGES;
+            for (int i = 0; kept && i < changes.size(); i++)
+            {
+                kept = Patch(result, changes.get(i));
+            }
+            if (kept)
+            {
+                result.version = snapshot.getVersion();
+                patched++;
+            }
+            else
+            {
+                iterator.remove();
+                dropped++;
+            }
+        }
+    }
+
+    // Updates a result for a single change. Returns false if it has to be worked out again instead.
+    private static boolean Patch(Result result, RecyclerChange change)
+    {
+        switch (result.kind)
+        {
+            case FILTER:
+                return PatchFilter(result, change);
+            case FIND:
+                return PatchFind(result, change);
+            default:
+                return PatchSort(result, change);
+        }
+    }
+
+    private static boolean PatchFilter(Result result, RecyclerChange change)
+    {
+        int index = change.getIndex();
+        int[] indexes = result.indexes;
+        int position = Arrays.binarySearch(indexes, index);
+        switch (change.getType())
+        {
+            case UPDATE:
+            {
+                boolean wasMatch = position >= 0;
+                boolean isMatch = RecyclerQueries.MatchesFilter(change.getNewData(), result.query);
+                if (wasMatch != isMatch)
+                {
+                    result.indexes = isMatch ? Inserted(indexes, -position - 1, index, 0)
+                            : Removed(indexes, position, 0);
+                }
+                return true;
+            }
+            case ADD:
+            {
+                // Everything from the index onwards moves up one, then the new record is added if it matches.
+                int from = position >= 0 ? position : -position - 1;
+                result.indexes = RecyclerQueries.MatchesFilter(change.getNewData(), result.query)
+                        ? Inserted(indexes, from, index, 1) : Shifted(indexes, from, 1);
+                return true;
+            }
+            default:
+            {
+                // The record is removed if it matched, then everything after it moves down one.
+                result.indexes = position >= 0 ? Removed(indexes, position, -1) : Shifted(indexes, -position - 1, -1);
+                return true;
+            }
+        }
+    }
+
+    private static boolean PatchFind(Result result, RecyclerChange change)
+    {
+        int index = change.getIndex();
+        int first = result.indexes[0];
+        boolean isMatch = change.getNewData() != null && RecyclerQueries.MatchesFind(change.getNewData(), result.query);
+        switch (change.getType())
+        {
+            case UPDATE:
+                if (index == first && !isMatch)
+                {
+                    // The first match no longer matches, and the next one could be anywhere after it.
+                    return false;
+                }
+                if (isMatch && (first < 0 || index < first))
+                {
+                    result.indexes[0] = index;
+                }
+                return true;
+            case ADD:
+                if (isMatch && (first < 0 || index <= first))
+                {
+                    result.indexes[0] = index;
+                }
+                else if (first >= index)
+                {
+                    result.indexes[0] = first + 1;
+                }
+                return true;
+            default:
+                if (index == first)
+                {
+                    return false;
+                }
+                if (first > index)
+                {
+                    result.indexes[0] = first - 1;
+                }
+                return true;
+        }
+    }
+
+    private static boolean PatchSort(Result result, RecyclerChange change)
+    {
+        // Only an edit that keeps the business name leaves the order as it was.
+        if (change.getType() != RecyclerChange.Type.UPDATE
+                || RecyclerQueries.BY_BUSINESS_NAME.compare(change.getOldData(), change.getNewData()) != 0)
+        {
+            return false;
+        }
+        Recycler[] sorted = result.sorted;
+        // Find the run of records with the same name, then the old record object within it.
+        int position = Arrays.binarySearch(sorted, change.getOldData(), RecyclerQueries.BY_BUSINESS_NAME);
+        if (position < 0)
+        {
+            return false;
+        }
+        while (position > 0 && RecyclerQueries.BY_BUSINESS_NAME.compare(sorted[position - 1], change.getOldData()) == 0)
+        {
+            position--;
+        }
+        for (; position < sorted.length
+                && RecyclerQueries.BY_BUSINESS_NAME.compare(sorted[position], change.getOldData()) == 0; position++)
+        {
+            if (sorted[position] == change.getOldData())
+            {
+                // Copy before changing, as callers may still be using the old array.
+                result.sorted = sorted.clone();
+                result.sorted[position] = change.getNewData();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Copies indexes with a new index inserted at a position, adding a shift to every index after it.
+    private static int[] Inserted(int[] indexes, int position, int index, int shift)
+    {
+        int[] result = new int[indexes.length + 1];
+        System.arraycopy(indexes, 0, result, 0, position);
+        result[position] = index;
+        for (int i = position; i < indexes.length; i++)
+        {
+            result[i + 1] = indexes[i] + shift;
+        }
+        return result;
+    }
+
+    // Copies indexes without the one at a position, adding a shift to every index after it.
+    private static int[] Removed(int[] indexes, int position, int shift)
+    {
+        int[] result = new int[indexes.length - 1];
+        System.arraycopy(indexes, 0, result, 0, position);
+        for (int i = position + 1; i < indexes.length; i++)
+        {
+            result[i - 1] = indexes[i] + shift;
+        }
+        return result;
+    }
+
+    // Copies indexes, adding a shift to every index from a position onwards.
+    private static int[] Shifted(int[] indexes, int position, int shift)
+    {
+        if (position == indexes.length)
+        {
+            return indexes;
+        }
+        int[] result = indexes.clone();
+        for (int i = position; i < result.length; i++)
+        {
+            result[i] += shift;
+        }
+        return result;
+    }
+
+    public synchronized void Clear()
+    {
+        entries.clear();
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        long total = hits + misses;
+        double hitRate = total == 0 ? 0 : (hits * 100.0) / total;
+        return "Query cache: " + entries.size() + "/" + capacity + " results, " + hits + " hits, " + misses
+                + " misses (" + String.format("%.1f", hitRate) + "% hit rate), " + patched + " kept and " + dropped
+                + " dropped after changes";
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A set of adds, updates and deletes to apply to a RecyclerStore in one go with RecyclerStore.ApplyBatch(). Indexes
+ * always refer to the snapshot the batch was created from, however many other changes the batch holds, so callers
+ * never have to allow for earlier deletes moving records down.
+ *
+ * Applying the batch builds the new list of records in a single pass over the old one, publishes one snapshot, adds
+ * one undo step and sends one change notification, however many records it changes. The batch only applies to the
+ * snapshot it was made from; if the store has changed since, nothing is applied, so the batch behaves like a single
+ * transaction.
+ */
+public final class RecyclerBatch
+{
+    private final RecyclerSnapshot base;
+    // Replacement records by index, in index order.
+    private final Map<Integer, Recycler> updates = new TreeMap<>();
+    private final BitSet deletes = new BitSet();
+    private final List<Recycler> adds = new ArrayList<>();
+
+    /**
+     * Creates an empty batch.
+     * @param base The snapshot the indexes in the batch refer to, normally the store's current snapshot.
+     */
+    public RecyclerBatch(RecyclerSnapshot base)
+    {
+        this.base = base;
+    }
+
+    public RecyclerSnapshot getBase()
+    {
+        return base;
+    }
+
+    /**
+     * Adds a new record after all the existing ones. Added records keep the order they were added to the batch in.
+     * @param data The record to add.
+     * @return This batch, so calls can be chained.
+     */
+    public RecyclerBatch Add(Recycler data)
+    {
+        adds.add(data);
+        return this;
+    }
+
+    /**
+     * Replaces an existing record. The last Set() or Delete() for an index is the one that is applied.
+     * @param index The index of the record in the base snapshot.
+     * @param data The new record.
+     * @return This batch, so calls can be chained.
+     */
+    public RecyclerBatch Set(int index, Recycler data)
+    {
+        base.Get(index);
+        deletes.clear(index);
+        updates.put(index, data);
+        return this;
+    }
+
+    /**
+     * Removes an existing record. The last Set() or Delete() for an index is the one that is applied.
+     * @param index The index of the record in the base snapshot.
+     * @return This batch, so calls can be chained.
+     */
+    public RecyclerBatch Delete(int index)
+    {
+        base.Get(index);
+        deletes.set(index);
+        updates.remove(index);
+        return this;
+    }
+
+    public boolean IsEmpty()
+    {
+        return adds.isEmpty() && updates.isEmpty() && deletes.isEmpty();
+    }
+
+    public int getDeleteCount()
+    {
+        return deletes.cardinality();
+    }
+
+    /**
+     * Builds the records the batch produces, copying every record of the base snapshot once.
+     * @return The new snapshot.
+     */
+    RecyclerSnapshot Result()
+    {
+        Recycler[] data = new Recycler[base.Size() - deletes.cardinality() + adds.size()];
+        int written = 0;
+        for (int i = 0; i < base.Size(); i++)
+        {
+            if (!deletes.get(i))
+            {
+                Recycler replacement = updates.get(i);
+                data[written++] = replacement != null ? replacement : base.Get(i);
+            }
+        }
+        for (Recycler added : adds)
+        {
+            data[written++] = added;
+        }
+        return RecyclerSnapshot.EMPTY.WithAdded(data);
+    }
+
+    /**
+     * Lists the batch as individual changes that, applied in order, turn the base snapshot into Result(): the updates
+     * first, then the deletes from the highest index down so the earlier indexes stay valid, then the adds.
+     * @return The changes.
+     */
+    List<RecyclerChange> Changes()
+    {
+        if (IsEmpty())
+        {
+            return Collections.emptyList();
+        }
+        List<RecyclerChange> changes = new ArrayList<>(updates.size() + deletes.cardinality() + adds.size());
+        for (Map.Entry<Integer, Recycler> update : updates.entrySet())
+        {
+            changes.add(RecyclerChange.Updated(update.getKey(), base.Get(update.getKey()), update.getValue()));
+        }
+        for (int i = deletes.previousSetBit(base.Size() - 1); i >= 0; i = deletes.previousSetBit(i - 1))
+        {
+            changes.add(RecyclerChange.Deleted(i, base.Get(i)));
+        }
+        int index = base.Size() - deletes.cardinality();
+        for (Recycler added : adds)
+        {
+            changes.add(RecyclerChange.Added(index++, added));
+        }
+        return changes;
+    }
+}
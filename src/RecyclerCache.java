@@ -0,0 +1,114 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded least-recently-used cache of Recycler objects, keyed by their index in the data file.
+ * Once the cache holds its maximum number of entries, adding another one drops whichever entry was
+ * used the longest time ago, so the memory it uses never grows past the configured capacity.
+ */
+public class RecyclerCache
+{
+    // The maximum number of Recycler objects the cache is allowed to hold at once.
+    private final int capacity;
+    // Counters tracking how many lookups were answered from the cache and how many had to go to the file.
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * A LinkedHashMap created with access ordering keeps its entries sorted from least to most recently used.
+     * Overriding removeEldestEntry lets the map throw away the least recently used entry whenever it grows too big.
+     */
+    private final LinkedHashMap<Integer, Recycler> entries;
+
+    /**
+     * Creates an empty cache.
+     * @param capacity The maximum number of Recycler objects to keep in memory.
+     */
+    public RecyclerCache(int capacity)
+    {
+        // A cache that cannot hold anything would make every lookup a miss, so always allow at least one entry.
+        this.capacity = Math.max(1, capacity);
+        this.entries = new LinkedHashMap<Integer, Recycler>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Recycler> eldest)
+            {
+                return size() > RecyclerCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Looks up a Recycler in the cache and updates the hit/miss counters.
+     * @param index The index of the record in the data file.
+     * @return The cached Recycler, or null if it is not currently in the cache.
+     */
+    public synchronized Recycler Get(int index)
+    {
+        Recycler data = entries.get(index);
+        if (data == null)
+        {
+            misses++;
+        }
+        else
+        {
+            hits++;
+        }
+        return data;
+    }
+
+    /**
+     * Checks whether a record is already cached without counting it as a hit or miss or changing its age.
+     * @param index The index of the record in the data file.
+     * @return True if the record is in the cache.
+     */
+    public synchronized boolean Contains(int index)
+    {
+        return entries.containsKey(index);
+    }
+
+    /**
+     * Adds or replaces a Recycler in the cache, dropping the least recently used entry if the cache is full.
+     * @param index The index of the record in the data file.
+     * @param data The Recycler object to cache.
+     */
+    public synchronized void Put(int index, Recycler data)
+    {
+        entries.put(index, data);
+    }
+
+    // Removes every entry from the cache. Used when record indexes shift, as the keys would no longer be correct.
+    public synchronized void Clear()
+    {
+        entries.clear();
+    }
+
+    public synchronized int Size()
+    {
+        return entries.size();
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        long total = hits + misses;
+        double hitRate = total == 0 ? 0 : (hits * 100.0) / total;
+        return "Cache: " + entries.size() + "/" + capacity + " entries, " + hits + " hits, " + misses + " misses ("
+                + String.format("%.1f", hitRate) + "% hit rate)";
+    }
+}
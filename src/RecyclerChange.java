@@ -0,0 +1,87 @@
+/**
+ * Describes a single change made to the list of recyclers: a record added at an index, a record at an index replaced
+ * with another, or a record removed from an index. Changes are reported to RecyclerStore listeners in the order they
+ * were applied, so anything kept alongside the store, such as an index, can be updated without rescanning the records.
+ */
+public final class RecyclerChange
+{
+    public enum Type
+    {
+        ADD,
+        UPDATE,
+        DELETE
+    }
+
+    private final Type type;
+    private final int index;
+    // The record before the change. Null for ADD.
+    private final Recycler oldData;
+    // The record after the change. Null for DELETE.
+    private final Recycler newData;
+
+    private RecyclerChange(Type type, int index, Recycler oldData, Recycler newData)
+    {
+        this.type = type;
+        this.index = index;
+        this.oldData = oldData;
+        this.newData = newData;
+    }
+
+    public static RecyclerChange Added(int index, Recycler newData)
+    {
+        return new RecyclerChange(Type.ADD, index, null, newData);
+    }
+
+    public static RecyclerChange Updated(int index, Recycler oldData, Recycler newData)
+    {
+        return new RecyclerChange(Type.UPDATE, index, oldData, newData);
+    }
+
+    public static RecyclerChange Deleted(int index, Recycler oldData)
+    {
+        return new RecyclerChange(Type.DELETE, index, oldData, null);
+    }
+
+    /**
+     * Creates the change that undoes this one.
+     * @return An ADD for a DELETE, a DELETE for an ADD, or an UPDATE with the records swapped.
+     */
+    public RecyclerChange Inverse()
+    {
+        switch (type)
+        {
+            case ADD:
+                return Deleted(index, newData);
+            case DELETE:
+                return Added(index, oldData);
+            default:
+                return Updated(index, newData, oldData);
+        }
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public Recycler getOldData()
+    {
+        return oldData;
+    }
+
+    public Recycler getNewData()
+    {
+        return newData;
+    }
+
+    @Override
+    public String toString()
+    {
+        return type + " " + index + " " + (newData != null ? newData : oldData);
+    }
+}
@@ -0,0 +1,782 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Secondary indexes over the records in a RecyclerStore, so records can be looked up by phone number, website or
+ * address without scanning every record:
+ *  - phone numbers are indexed by their digits only, so "(02) 9999-1234" and "02 9999 1234" are the same number,
+ *    and Australian numbers written in international form are indexed in their trunk form, so "+61 2 9999 1234"
+ *    and "0011 61 2 9999 1234" are the same number as "02 9999 1234";
+ *  - websites are indexed by host name, ignoring the scheme, a leading "www.", any port and any path;
+ *  - addresses are indexed by each word in them (street names, suburbs, postcodes), and a lookup returns the
+ *    records whose address contains every word searched for.
+ * Phone and website lookups are a single hash table lookup. The position of a record in the snapshot can be found
+ * with PositionOf(), which keeps a map from each record to its position up to date across edits and appends.
+ *
+ * The records sorted by business name are kept with the indexes too, and reused by Sorted() until the records
+ * change.
+ *
+ * The indexes are built in parallel from a snapshot once loading finishes, and are then kept up to date from the
+ * store's change notifications. Lookups return nothing until the first build has completed.
+ *
+ * After a build the indexes are saved to an index file next to the data file, holding the position of each record
+ * rather than the record itself and tagged with the fingerprint of the data file they were built from. On the next
+ * start the file is read in one go and used straight away if the data file has not changed, which skips normalising,
+ * tokenising and sorting every record. If the data file has changed the indexes are rebuilt in the background and
+ * the index file is replaced.
+ */
+public class RecyclerIndexes implements RecyclerStore.ChangeListener
+{
+    // Address words shorter than this, such as unit letters, are not indexed.
+    static final int MIN_TOKEN_LENGTH = 2;
+    // Identifies an index file, followed by the format version, which changes whenever the layout of the file does.
+    private static final int INDEX_FILE_MAGIC = 0x52495831;
+    private static final int INDEX_FILE_VERSION = 2;
+    // Change notifications with at least this many changes are applied to the indexes in bulk.
+    private static final int BULK_CHANGE_COUNT = 32;
+    // The Australian country code and the prefix dialled from Australia before it, as in 0011 61 2 9999 1234.
+    private static final String AU_COUNTRY_CODE = "61";
+    private static final String AU_EXIT_CODE = "0011";
+
+    private final RecyclerStore store;
+    // The current index data, or null while the first build is still running. Guarded by this object's lock.
+    private IndexData data;
+
+    /**
+     * Creates the indexes and starts listening to the store for changes. Call Rebuild() or RebuildInBackground()
+     * once the store has been loaded.
+     * @param store The store to index.
+     */
+    public RecyclerIndexes(RecyclerStore store)
+    {
+        this.store = store;
+        store.AddChangeListener(this);
+    }
+
+    // Builds the indexes on the query pool, so the caller does not have to wait.
+    public void RebuildInBackground()
+    {
+        RecyclerQueries.pool.execute(this::Rebuild);
+    }
+
+    /**
+     * Builds the indexes from the current snapshot, splitting the work across the query pool for large stores.
+     * If the store changes while the build is running the build starts again, so the finished indexes always
+     * match the current snapshot and the incremental updates that follow.
+     */
+    public void Rebuild()
+    {
+        while (true)
+        {
+            RecyclerSnapshot snapshot = store.GetSnapshot();
+            IndexData built = Build(snapshot);
+            synchronized (this)
+            {
+                // The store publishes a snapshot before telling listeners about it, so if the snapshot is still the
+                // same here, any later change will be applied to the data being installed.
+                if (store.GetSnapshot() == snapshot)
+                {
+                    data = built;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Installs the indexes saved by an earlier run if they were built from exactly the data that has just been
+     * loaded, otherwise builds them and saves them for next time. Runs on the query pool, so the caller does not have
+     * to wait.
+     * @param loaded The snapshot holding the records exactly as they were read from the data file.
+     * @param fingerprint The fingerprint of the data file, taken when it was read, or null if it could not be taken.
+     * @param indexFile The file the indexes are saved in.
+     */
+    public void LoadOrRebuildInBackground(RecyclerSnapshot loaded, DataFileFingerprint fingerprint, File indexFile)
+    {
+        RecyclerQueries.pool.execute(() -> {
+            IndexData built = fingerprint == null ? null : ReadIndexFile(indexFile, fingerprint, loaded);
+            if (built == null)
+            {
+                built = Build(loaded);
+                if (fingerprint != null)
+                {
+                    WriteIndexFile(indexFile, fingerprint, loaded, built);
+                }
+            }
+            synchronized (this)
+            {
+                if (store.GetSnapshot() == loaded)
+                {
+                    data = built;
+                    return;
+                }
+            }
+            // The records were changed while the indexes were being loaded, so build them from the new records.
+            Rebuild();
+        });
+    }
+
+    public synchronized boolean IsReady()
+    {
+        return data != null;
+    }
+
+    @Override
+    public synchronized void RecordsChanged(RecyclerSnapshot previous, RecyclerSnapshot snapshot,
+                                            List<RecyclerChange> changes)
+    {
+        if (data == null)
+        {
+            // A build is still running and will pick up this change when it checks the snapshot.
+            return;
+        }
+        data.sorted = null;
+        data.UpdatePositions(previous, snapshot, changes);
+        if (changes.size() >= BULK_CHANGE_COUNT && ApplyInBulk(changes))
+        {
+            return;
+        }
+        for (RecyclerChange change : changes)
+        {
+            if (change.getOldData() != null)
+            {
+                data.Remove(change.getOldData());
+            }
+            if (change.getNewData() != null)
+            {
+                data.Add(change.getNewData());
+            }
+        }
+    }
+
+    /**
+     * Applies a large batch of changes by removing every old record from each index entry in one pass, rather than
+     * searching the entry once per record, then adding the new records. This gives the same result as applying the
+     * changes one by one as long as no record is both removed and added, which is checked first.
+     * @return False if a record is both removed and added, in which case nothing was changed.
+     */
+    private boolean ApplyInBulk(List<RecyclerChange> changes)
+    {
+        Set<Recycler> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Recycler> added = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (RecyclerChange change : changes)
+        {
+            if (change.getOldData() != null)
+            {
+                removed.add(change.getOldData());
+            }
+            if (change.getNewData() != null)
+            {
+                added.add(change.getNewData());
+            }
+        }
+        for (Recycler record : added)
+        {
+            if (removed.contains(record))
+            {
+                return false;
+            }
+        }
+        data.RemoveAll(removed);
+        for (RecyclerChange change : changes)
+        {
+            if (change.getNewData() != null)
+            {
+                data.Add(change.getNewData());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the records of a snapshot sorted by business name, reusing the sorted order kept with the indexes if the
+     * records have not changed since it was built.
+     * @param snapshot The records to sort.
+     * @return A new sorted array, which the caller is free to change.
+     */
+    public Recycler[] Sorted(RecyclerSnapshot snapshot)
+    {
+        synchronized (this)
+        {
+            if (data != null && data.sorted != null && data.sortedVersion == snapshot.getVersion())
+            {
+                return data.sorted.clone();
+            }
+        }
+        Recycler[] sorted = RecyclerQueries.Sort(snapshot);
+        synchronized (this)
+        {
+            // Keep the result for next time if the snapshot is still current. Any later change clears it again.
+            if (data != null && store.GetSnapshot() == snapshot)
+            {
+                data.sorted = sorted.clone();
+                data.sortedVersion = snapshot.getVersion();
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Finds the position of a record in a snapshot, such as one returned by a lookup, without scanning the snapshot.
+     * The map from records to positions is built the first time it is needed and then kept up to date as records are
+     * edited or appended, and is only built again after a record is inserted or removed part way through.
+     * @param snapshot The snapshot to find the record in.
+     * @param record The record object to find.
+     * @return The position of the record, or -1 if it is not in the snapshot or the indexes are not ready.
+     */
+    public synchronized int PositionOf(RecyclerSnapshot snapshot, Recycler record)
+    {
+        if (data == null || store.GetSnapshot() != snapshot)
+        {
+            // Positions are only kept for the current snapshot, so look through an older one directly.
+            return Scan(snapshot, record);
+        }
+        if (data.positions == null || data.positionsVersion != snapshot.getVersion())
+        {
+            data.positions = new IdentityHashMap<>(snapshot.Size() * 2);
+            for (int i = 0; i < snapshot.Size(); i++)
+            {
+                data.positions.put(snapshot.Get(i), i);
+            }
+            data.positionsVersion = snapshot.getVersion();
+        }
+        Integer position = data.positions.get(record);
+        return position == null ? -1 : position;
+    }
+
+    // Finds a record in a snapshot by comparing it with every record in turn.
+    private static int Scan(RecyclerSnapshot snapshot, Recycler record)
+    {
+        for (int i = 0; i < snapshot.Size(); i++)
+        {
+            if (snapshot.Get(i) == record)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the records with the given phone number.
+     * @param phone The phone number in any format.
+     * @return The matching records, or an empty list.
+     */
+    public synchronized List<Recycler> FindByPhone(String phone)
+    {
+        return data == null ? Collections.emptyList() : Copy(data.byPhone.get(NormalizePhone(phone)));
+    }
+
+    /**
+     * Finds the records with the given website host.
+     * @param website A host name or full web address.
+     * @return The matching records, or an empty list.
+     */
+    public synchronized List<Recycler> FindByWebsite(String website)
+    {
+        return data == null ? Collections.emptyList() : Copy(data.byWebsite.get(NormalizeWebsite(website)));
+    }
+
+    /**
+     * Finds the records whose address contains every word in the given text.
+     * @param address One or more address words, such as a street name and suburb.
+     * @return The matching records in the order they were indexed, or an empty list.
+     */
+    public synchronized List<Recycler> FindByAddress(String address)
+    {
+        Set<String> tokens = AddressTokens(address);
+        if (data == null || tokens.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        // Start from the word with the fewest records and check the others against those records only.
+        List<List<Recycler>> lists = new ArrayList<>();
+        for (String token : tokens)
+        {
+            List<Recycler> records = data.byAddressToken.get(token);
+            if (records == null)
+            {
+                return Collections.emptyList();
+            }
+            lists.add(records);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        List<Recycler> result = new ArrayList<>(lists.get(0));
+        for (int i = 1; i < lists.size() && !result.isEmpty(); i++)
+        {
+            Map<Recycler, Boolean> present = new IdentityHashMap<>();
+            for (Recycler record : lists.get(i))
+            {
+                present.put(record, Boolean.TRUE);
+            }
+            result.removeIf(record -> !present.containsKey(record));
+        }
+        return result;
+    }
+
+    /**
+     * Reduces a phone number to its digits. An Australian number in international form, starting with +61, 0011 61
+     * or 61 followed by the nine digits of the national number, is given in its trunk form starting with 0 instead,
+     * including when it is written as +61 (0)2 with the trunk 0 kept in brackets.
+     * @param phone The phone number in any format.
+     * @return The digits of the number, or an empty string.
+     */
+    public static String NormalizePhone(String phone)
+    {
+        if (phone == null)
+        {
+            return "";
+        }
+        StringBuilder digits = new StringBuilder(phone.length());
+        for (int i = 0; i < phone.length(); i++)
+        {
+            char c = phone.charAt(i);
+            if (c >= '0' && c <= '9')
+            {
+                digits.append(c);
+            }
+        }
+        String number = digits.toString();
+        boolean international = phone.trim().startsWith("+");
+        if (number.startsWith(AU_EXIT_CODE + AU_COUNTRY_CODE))
+        {
+            number = number.substring(AU_EXIT_CODE.length());
+            international = true;
+        }
+        // Without a + or exit code, only treat a leading 61 as the country code when the length shows it must be,
+        // as a local eight digit number can start with 61 too.
+        if (number.startsWith(AU_COUNTRY_CODE) && (international || number.length() == 11
+                || (number.length() == 12 && number.charAt(2) == '0')))
+        {
+            number = number.substring(AU_COUNTRY_CODE.length());
+            return number.startsWith("0") ? number : "0" + number;
+        }
+        return number;
+    }
+
+    /**
+     * Reduces a web address to its lower case host name, without a leading "www.".
+     * @param website A host name or full web address.
+     * @return The host name, or an empty string.
+     */
+    public static String NormalizeWebsite(String website)
+    {
+        if (website == null)
+        {
+            return "";
+        }
+        String host = website.trim().toLowerCase();
+        int scheme = host.indexOf("://");
+        if (scheme >= 0)
+        {
+            host = host.substring(scheme + 3);
+        }
+        // Cut the host off at the start of any path, query, fragment or port.
+        for (int i = 0; i < host.length(); i++)
+        {
+            char c = host.charAt(i);
+            if (c == '/' || c == '?' || c == '#' || c == ':')
+            {
+                host = host.substring(0, i);
+                break;
+            }
+        }
+        if (host.startsWith("www."))
+        {
+            host = host.substring(4);
+        }
+        return host;
+    }
+
+    /**
+     * Splits an address into its lower case words, without duplicates.
+     * @param address The address text.
+     * @return The words in the order they appear.
+     */
+    public static Set<String> AddressTokens(String address)
+    {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (address == null)
+        {
+            return tokens;
+        }
+        for (String token : address.toLowerCase().split("[^\\p{L}\\p{N}]+"))
+        {
+            if (token.length() >= MIN_TOKEN_LENGTH)
+            {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    // Builds the index data and sorted order for a snapshot, in parallel when the snapshot is large.
+    private static IndexData Build(RecyclerSnapshot snapshot)
+    {
+        IndexData built;
+        if (snapshot.Size() < RecyclerQueries.PARALLEL_THRESHOLD)
+        {
+            built = new IndexData();
+            for (int i = 0; i < snapshot.Size(); i++)
+            {
+                built.Add(snapshot.Get(i));
+            }
+        }
+        else
+        {
+            int chunkSize = Math.max(RecyclerQueries.MIN_CHUNK_SIZE,
+                    snapshot.Size() / (RecyclerQueries.pool.getParallelism() * 4));
+            built = RecyclerQueries.pool.invoke(new BuildTask(snapshot, 0, snapshot.Size(), chunkSize));
+        }
+        built.sorted = RecyclerQueries.Sort(snapshot);
+        built.sortedVersion = snapshot.getVersion();
+        return built;
+    }
+
+    /**
+     * Saves index data to the index file, replacing the file in one step so a failed save never leaves half a file.
+     * The file holds a header with the data file fingerprint and record count, then each index as a list of keys
+     * with the positions of their records, then the positions of the records in sorted order.
+     */
+    private static void WriteIndexFile(File indexFile, DataFileFingerprint fingerprint, RecyclerSnapshot snapshot,
+                                       IndexData built)
+    {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try
+        {
+            Map<Recycler, Integer> positions = new IdentityHashMap<>(snapshot.Size() * 2);
+            for (int i = 0; i < snapshot.Size(); i++)
+            {
+                positions.put(snapshot.Get(i), i);
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp),
+                    1 << 16)))
+            {
+                out.writeInt(INDEX_FILE_MAGIC);
+                out.writeInt(INDEX_FILE_VERSION);
+                out.writeLong(fingerprint.getSize());
+                out.writeLong(fingerprint.getLastModified());
+                out.writeLong(fingerprint.getChecksum());
+                out.writeInt(snapshot.Size());
+                WriteIndex(out, built.byPhone, positions);
+                WriteIndex(out, built.byWebsite, positions);
+                WriteIndex(out, built.byAddressToken, positions);
+                out.writeInt(built.sorted.length);
+                for (Recycler record : built.sorted)
+                {
+                    out.writeInt(positions.get(record));
+                }
+            }
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (Exception ex)
+        {
+            System.out.println(ex.getMessage());
+        }
+    }
+
+    private static void WriteIndex(DataOutputStream out, Map<String, List<Recycler>> index,
+                                   Map<Recycler, Integer> positions) throws Exception
+    {
+        out.writeInt(index.size());
+        for (Map.Entry<String, List<Recycler>> entry : index.entrySet())
+        {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(entry.getValue().size());
+            for (Recycler record : entry.getValue())
+            {
+                out.writeInt(positions.get(record));
+            }
+        }
+    }
+
+    /**
+     * Reads the index file saved by an earlier run into memory in one read rather than through a stream. The file is
+     * not memory mapped, as a mapping stays open until it is garbage collected and on Windows that would stop the
+     * index file being replaced after a rebuild.
+     * @return The index data pointing at the records of the snapshot, or null if there is no index file, it was
+     *         built from a different data file or it could not be read.
+     */
+    private static IndexData ReadIndexFile(File indexFile, DataFileFingerprint fingerprint, RecyclerSnapshot snapshot)
+    {
+        if (!indexFile.isFile())
+        {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer in = ByteBuffer.allocate((int) channel.size());
+            while (in.hasRemaining())
+            {
+                if (channel.read(in) < 0)
+                {
+                    break;
+                }
+            }
+            in.flip();
+            if (in.getInt() != INDEX_FILE_MAGIC || in.getInt() != INDEX_FILE_VERSION)
+            {
+                return null;
+            }
+            DataFileFingerprint builtFrom = new DataFileFingerprint(in.getLong(), in.getLong(), in.getLong());
+            if (!builtFrom.equals(fingerprint) || in.getInt() != snapshot.Size())
+            {
+                return null;
+            }
+            IndexData loaded = new IndexData();
+            ReadIndex(in, loaded.byPhone, snapshot);
+            ReadIndex(in, loaded.byWebsite, snapshot);
+            ReadIndex(in, loaded.byAddressToken, snapshot);
+            Recycler[] sorted = new Recycler[in.getInt()];
+            for (int i = 0; i < sorted.length; i++)
+            {
+                sorted[i] = snapshot.Get(in.getInt());
+            }
+            loaded.sorted = sorted;
+            loaded.sortedVersion = snapshot.getVersion();
+            return loaded;
+        }
+        catch (Exception ex)
+        {
+            // A damaged index file is simply rebuilt.
+            System.out.println(ex.getMessage());
+            return null;
+        }
+    }
+
+    private static void ReadIndex(ByteBuffer in, Map<String, List<Recycler>> index, RecyclerSnapshot snapshot)
+    {
+        int keys = in.getInt();
+        for (int i = 0; i < keys; i++)
+        {
+            byte[] key = new byte[in.getInt()];
+            in.get(key);
+            int count = in.getInt();
+            List<Recycler> records = new ArrayList<>(count);
+            for (int j = 0; j < count; j++)
+            {
+                records.add(snapshot.Get(in.getInt()));
+            }
+            index.put(new String(key, StandardCharsets.UTF_8), records);
+        }
+    }
+
+    // Returns a copy of an index entry, so callers can use it after the lock is released.
+    private static List<Recycler> Copy(List<Recycler> records)
+    {
+        return records == null ? Collections.emptyList() : new ArrayList<>(records);
+    }
+
+    // The hash tables behind the indexes. Each maps a normalised key to the records that have it.
+    private static final class IndexData
+    {
+        final HashMap<String, List<Recycler>> byPhone = new HashMap<>();
+        final HashMap<String, List<Recycler>> byWebsite = new HashMap<>();
+        final HashMap<String, List<Recycler>> byAddressToken = new HashMap<>();
+        // The records sorted by business name, and the version of the snapshot they came from, or null once the
+        // records have changed.
+        Recycler[] sorted;
+        long sortedVersion;
+        // The position of each record in the snapshot with the version below, or null until PositionOf() needs it.
+        IdentityHashMap<Recycler, Integer> positions;
+        long positionsVersion;
+
+        // Brings the record positions up to date with edits and appends, or drops them if a record was inserted or
+        // removed part way through, as every later position would have to change.
+        void UpdatePositions(RecyclerSnapshot previous, RecyclerSnapshot snapshot, List<RecyclerChange> changes)
+        {
+            if (positions == null || positionsVersion != previous.getVersion())
+            {
+                positions = null;
+                return;
+            }
+            int size = previous.Size();
+            for (RecyclerChange change : changes)
+            {
+                int index = change.getIndex();
+                switch (change.getType())
+                {
+                    case UPDATE:
+                        positions.remove(change.getOldData());
+                        positions.put(change.getNewData(), index);
+                        break;
+                    case ADD:
+                        if (index != size)
+                        {
+                            positions = null;
+                            return;
+                        }
+                        positions.put(change.getNewData(), index);
+                        size++;
+                        break;
+                    default:
+                        if (index != size - 1)
+                        {
+                            positions = null;
+                            return;
+                        }
+                        positions.remove(change.getOldData());
+                        size--;
+                        break;
+                }
+            }
+            positionsVersion = snapshot.getVersion();
+        }
+
+        void Add(Recycler record)
+        {
+            Put(byPhone, NormalizePhone(record.getPhone()), record);
+            Put(byWebsite, NormalizeWebsite(record.getWebsite()), record);
+            for (String token : AddressTokens(record.getAddress()))
+            {
+                Put(byAddressToken, token, record);
+            }
+        }
+
+        void Remove(Recycler record)
+        {
+            Take(byPhone, NormalizePhone(record.getPhone()), record);
+            Take(byWebsite, NormalizeWebsite(record.getWebsite()), record);
+            for (String token : AddressTokens(record.getAddress()))
+            {
+                Take(byAddressToken, token, record);
+            }
+        }
+
+        // Removes a set of record objects, going through each affected index entry only once.
+        void RemoveAll(Set<Recycler> records)
+        {
+            Set<String> phones = new HashSet<>();
+            Set<String> websites = new HashSet<>();
+            Set<String> tokens = new HashSet<>();
+            for (Recycler record : records)
+            {
+                phones.add(NormalizePhone(record.getPhone()));
+                websites.add(NormalizeWebsite(record.getWebsite()));
+                tokens.addAll(AddressTokens(record.getAddress()));
+            }
+            TakeAll(byPhone, phones, records);
+            TakeAll(byWebsite, websites, records);
+            TakeAll(byAddressToken, tokens, records);
+        }
+
+        // Adds every entry of another index after this one's entries, keeping record order.
+        void MergeFrom(IndexData other)
+        {
+            Merge(byPhone, other.byPhone);
+            Merge(byWebsite, other.byWebsite);
+            Merge(byAddressToken, other.byAddressToken);
+        }
+
+        private static void Put(Map<String, List<Recycler>> index, String key, Recycler record)
+        {
+            if (!key.isEmpty())
+            {
+                index.computeIfAbsent(key, k -> new ArrayList<>(2)).add(record);
+            }
+        }
+
+        // Removes the given record object, not just an equal looking one, from an index entry.
+        private static void Take(Map<String, List<Recycler>> index, String key, Recycler record)
+        {
+            List<Recycler> records = index.get(key);
+            if (records == null)
+            {
+                return;
+            }
+            for (int i = 0; i < records.size(); i++)
+            {
+                if (records.get(i) == record)
+                {
+                    records.remove(i);
+                    break;
+                }
+            }
+            if (records.isEmpty())
+            {
+                index.remove(key);
+            }
+        }
+
+        private static void TakeAll(Map<String, List<Recycler>> index, Set<String> keys, Set<Recycler> records)
+        {
+            for (String key : keys)
+            {
+                List<Recycler> entry = index.get(key);
+                if (entry != null && entry.removeIf(records::contains) && entry.isEmpty())
+                {
+                    index.remove(key);
+                }
+            }
+        }
+
+        private static void Merge(Map<String, List<Recycler>> into, Map<String, List<Recycler>> from)
+        {
+            for (Map.Entry<String, List<Recycler>> entry : from.entrySet())
+            {
+                into.merge(entry.getKey(), entry.getValue(), (existing, added) -> {
+                    existing.addAll(added);
+                    return existing;
+                });
+            }
+        }
+    }
+
+    // Splits a snapshot into chunks, indexes the chunks in parallel and merges the results left to right.
+    private static final class BuildTask extends RecursiveTask<IndexData>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final RecyclerSnapshot snapshot;
+        private final int from, to, chunkSize;
+
+        BuildTask(RecyclerSnapshot snapshot, int from, int to, int chunkSize)
+        {
+            this.snapshot = snapshot;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected IndexData compute()
+        {
+            if (to - from <= chunkSize)
+            {
+                IndexData built = new IndexData();
+                for (int i = from; i < to; i++)
+                {
+                    built.Add(snapshot.Get(i));
+                }
+                return built;
+            }
+            int middle = (from + to) >>> 1;
+            BuildTask right = new BuildTask(snapshot, middle, to, chunkSize);
+            right.fork();
+            IndexData left = new BuildTask(snapshot, from, middle, chunkSize).compute();
+            left.MergeFrom(right.join());
+            return left;
+        }
+    }
+}
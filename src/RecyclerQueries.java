@@ -0,0 +1,378 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sort, filter and find operations over a RecyclerSnapshot. Small snapshots are processed on the calling thread
+ * exactly as before. Once a snapshot holds at least the parallel threshold number of records the work is split into
+ * chunks and run on a dedicated fork-join pool, with the results of each chunk merged back together in record order.
+ *
+ * The pool uses one thread fewer than the number of processors by default, and its threads run at a slightly lower
+ * priority, so the event dispatch thread always has a core to keep the window responsive.
+ * The threshold and pool size can be set with -Drecyclers.parallel.threshold and -Drecyclers.parallelism.
+ */
+public class RecyclerQueries
+{
+    // The number of records at which the operations switch to running in parallel.
+    static final int PARALLEL_THRESHOLD = Math.max(1, Integer.getInteger("recyclers.parallel.threshold", 10000));
+    // The smallest chunk of records a single task will scan, so tasks are not so small they cost more than they save.
+    static final int MIN_CHUNK_SIZE = 2048;
+    // How many records a scan checks between looking to see whether it has been cancelled.
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+    // Used by the operations that cannot be cancelled.
+    private static final BooleanSupplier NEVER_CANCELLED = () -> false;
+    // The last four digit number in an address is taken to be the postcode.
+    private static final Pattern POSTCODE = Pattern.compile("\\b(\\d{4})\\b");
+
+    // Orders recyclers by business name, ignoring case, the same way as Recycler.compareTo.
+    public static final Comparator<Recycler> BY_BUSINESS_NAME = Recycler::compareTo;
+
+    // The pool the parallel operations run in, kept separate from the common pool so its size can be tuned.
+    static final ForkJoinPool pool = new ForkJoinPool(
+            Math.max(1, Integer.getInteger("recyclers.parallelism", Runtime.getRuntime().availableProcessors() - 1)),
+            forkJoinPool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                thread.setName("recycler-query-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            },
+            null, false);
+
+    /**
+     * Returns the records of a snapshot sorted by business name. The snapshot itself is not changed.
+     * @param snapshot The records to sort.
+     * @return A new, sorted array.
+     */
+    public static Recycler[] Sort(RecyclerSnapshot snapshot)
+    {
+        Recycler[] sorted = snapshot.ToArray();
+        if (sorted.length < PARALLEL_THRESHOLD)
+        {
+            Arrays.sort(sorted, BY_BUSINESS_NAME);
+        }
+        else
+        {
+            // Arrays.parallelSort decides how far to split the work from the common pool's parallelism, not this pool's,
+            // so sort with our own merge sort instead. It gives the same order as Arrays.sort.
+            pool.invoke(new SortTask(sorted, new Recycler[sorted.length], 0, sorted.length, ChunkSize(sorted.length)));
+        }
+        return sorted;
+    }
+
+    /**
+     * Finds every record whose recycled products contain the given text, ignoring case.
+     * @param snapshot The records to search.
+     * @param text The text to look for.
+     * @return The indexes of the matching records, in ascending order.
+     */
+    public static int[] Filter(RecyclerSnapshot snapshot, String text)
+    {
+        return Filter(snapshot, text, null, NEVER_CANCELLED);
+    }
+
+    /**
+     * Finds the records whose recycled products contain the given text, ignoring case, checking only the given
+     * candidates. The scan gives up with a CancellationException as soon as it notices it has been cancelled.
+     * @param snapshot The records to search.
+     * @param text The text to look for.
+     * @param candidates The indexes of the records to check in ascending order, or null to check every record.
+     * @param cancelled Returns true once the result is no longer wanted.
+     * @return The indexes of the matching records, in ascending order.
+     */
+    public static int[] Filter(RecyclerSnapshot snapshot, String text, int[] candidates, BooleanSupplier cancelled)
+    {
+        String query = text.toLowerCase();
+        int count = candidates == null ? snapshot.Size() : candidates.length;
+        if (count < PARALLEL_THRESHOLD)
+        {
+            return FilterRange(snapshot, query, candidates, 0, count, cancelled);
+        }
+        return pool.invoke(new FilterTask(snapshot, query, candidates, 0, count, ChunkSize(count), cancelled));
+    }
+
+    /**
+     * Finds the first record whose business name contains the given text, ignoring case.
+     * @param snapshot The records to search.
+     * @param text The text to look for.
+     * @return The index of the first matching record, or -1 if nothing matches.
+     */
+    public static int Find(RecyclerSnapshot snapshot, String text)
+    {
+        return Find(snapshot, text, 0, NEVER_CANCELLED);
+    }
+
+    /**
+     * Finds the first record at or after the given index whose business name contains the given text, ignoring case.
+     * The scan gives up with a CancellationException as soon as it notices it has been cancelled.
+     * @param snapshot The records to search.
+     * @param text The text to look for.
+     * @param from The index to start searching from.
+     * @param cancelled Returns true once the result is no longer wanted.
+     * @return The index of the first matching record, or -1 if nothing matches.
+     */
+    public static int Find(RecyclerSnapshot snapshot, String text, int from, BooleanSupplier cancelled)
+    {
+        String query = text.toLowerCase();
+        int to = snapshot.Size();
+        if (to - from < PARALLEL_THRESHOLD)
+        {
+            return FindInRange(snapshot, query, from, to, cancelled);
+        }
+        return pool.invoke(new FindTask(snapshot, query, from, to, ChunkSize(to - from), cancelled));
+    }
+
+    // Checks a single record against a lower case filter.
+    static boolean MatchesFilter(Recycler data, String query)
+    {
+        return data.getRecycles().toLowerCase().contains(query);
+    }
+
+    // Checks a single record against a lower case find query.
+    static boolean MatchesFind(Recycler data, String query)
+    {
+        return data.getBusinessName().toLowerCase().contains(query);
+    }
+
+    /**
+     * Checks whether a record is in a region: a postcode region when the region is digits, such as "2" for New South
+     * Wales or "2000" for one postcode, otherwise a range of business names, such as "G" or "Green".
+     * @param data The record.
+     * @param region The leading postcode digits or leading business name letters, in any case.
+     * @return True if the record's postcode or business name starts with the region.
+     */
+    static boolean MatchesRegion(Recycler data, String region)
+    {
+        if (IsPostcodeRegion(region))
+        {
+            String postcode = Postcode(data);
+            return postcode != null && postcode.startsWith(region);
+        }
+        return data.getBusinessName().trim().toLowerCase().startsWith(region.toLowerCase());
+    }
+
+    // Whether a region given to MatchesRegion() is a postcode region rather than a business name range.
+    static boolean IsPostcodeRegion(String region)
+    {
+        return !region.isEmpty() && Character.isDigit(region.charAt(0));
+    }
+
+    /**
+     * Finds the postcode in a record's address.
+     * @param data The record.
+     * @return The last four digit number in the address, or null if there is none.
+     */
+    static String Postcode(Recycler data)
+    {
+        Matcher matcher = POSTCODE.matcher(data.getAddress());
+        String postcode = null;
+        while (matcher.find())
+        {
+            postcode = matcher.group(1);
+        }
+        return postcode;
+    }
+
+    // Splits the records into about four chunks per thread, so threads that finish early can help with the rest.
+    private static int ChunkSize(int size)
+    {
+        return Math.max(MIN_CHUNK_SIZE, size / (pool.getParallelism() * 4));
+    }
+
+    /**
+     * Scans part of a snapshot sequentially for records matching the filter. When a candidate list is given, from
+     * and to are positions in that list rather than record indexes.
+     */
+    private static int[] FilterRange(RecyclerSnapshot snapshot, String query, int[] candidates, int from, int to,
+                                     BooleanSupplier cancelled)
+    {
+        int[] matches = new int[Math.min(16, to - from)];
+        int count = 0;
+        for (int i = from; i < to; i++)
+        {
+            CheckCancelled(i - from, cancelled);
+            int index = candidates == null ? i : candidates[i];
+            if (MatchesFilter(snapshot.Get(index), query))
+            {
+                if (count == matches.length)
+                {
+                    matches = Arrays.copyOf(matches, Math.max(1, count * 2));
+                }
+                matches[count++] = index;
+            }
+        }
+        return count == matches.length ? matches : Arrays.copyOf(matches, count);
+    }
+
+    // Scans part of a snapshot sequentially for the first record matching the find query.
+    private static int FindInRange(RecyclerSnapshot snapshot, String query, int from, int to, BooleanSupplier cancelled)
+    {
+        for (int i = from; i < to; i++)
+        {
+            CheckCancelled(i - from, cancelled);
+            if (MatchesFind(snapshot.Get(i), query))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Every so often, stops a scan whose result is no longer wanted.
+    private static void CheckCancelled(int scanned, BooleanSupplier cancelled)
+    {
+        if (scanned % CANCEL_CHECK_INTERVAL == 0 && cancelled.getAsBoolean())
+        {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Sorts a range of records by splitting it in half until each piece is no bigger than the chunk size, sorting the
+     * pieces in parallel and merging them back together. Pieces are sorted with Arrays.sort and merged taking from the
+     * left half first when names are equal, so records with the same name keep their original order.
+     */
+    private static class SortTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Recycler[] records;
+        // Space to merge into, the same length as the records.
+        private final Recycler[] buffer;
+        private final int from, to, chunkSize;
+
+        SortTask(Recycler[] records, Recycler[] buffer, int from, int to, int chunkSize)
+        {
+            this.records = records;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= chunkSize)
+            {
+                Arrays.sort(records, from, to, BY_BUSINESS_NAME);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new SortTask(records, buffer, from, middle, chunkSize),
+                    new SortTask(records, buffer, middle, to, chunkSize));
+            // Nothing to merge if the two halves are already in order.
+            if (BY_BUSINESS_NAME.compare(records[middle - 1], records[middle]) <= 0)
+            {
+                return;
+            }
+            int left = from;
+            int right = middle;
+            int out = from;
+            while (left < middle && right < to)
+            {
+                buffer[out++] = BY_BUSINESS_NAME.compare(records[right], records[left]) < 0
+                        ? records[right++] : records[left++];
+            }
+            System.arraycopy(records, left, buffer, out, middle - left);
+            out += middle - left;
+            System.arraycopy(records, right, buffer, out, to - right);
+            System.arraycopy(buffer, from, records, from, to - from);
+        }
+    }
+
+    /**
+     * Splits a range of records in half until each piece is no bigger than the chunk size, scans the pieces in
+     * parallel and joins their matches back together with the left half first, keeping them in record order.
+     */
+    private static class FilterTask extends RecursiveTask<int[]>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final RecyclerSnapshot snapshot;
+        private final String query;
+        private final int[] candidates;
+        private final int from, to, chunkSize;
+        private final BooleanSupplier cancelled;
+
+        FilterTask(RecyclerSnapshot snapshot, String query, int[] candidates, int from, int to, int chunkSize,
+                   BooleanSupplier cancelled)
+        {
+            this.snapshot = snapshot;
+            this.query = query;
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected int[] compute()
+        {
+            if (to - from <= chunkSize)
+            {
+                return FilterRange(snapshot, query, candidates, from, to, cancelled);
+            }
+            int middle = (from + to) >>> 1;
+            FilterTask right = new FilterTask(snapshot, query, candidates, middle, to, chunkSize, cancelled);
+            right.fork();
+            int[] leftMatches = new FilterTask(snapshot, query, candidates, from, middle, chunkSize, cancelled).compute();
+            int[] rightMatches = right.join();
+            int[] merged = Arrays.copyOf(leftMatches, leftMatches.length + rightMatches.length);
+            System.arraycopy(rightMatches, 0, merged, leftMatches.length, rightMatches.length);
+            return merged;
+        }
+    }
+
+    /**
+     * Splits a range of records in the same way as FilterTask, returning the lowest matching index found by any
+     * piece. Once a piece on the left finds a match, pieces to its right that have not started yet are skipped.
+     */
+    private static class FindTask extends RecursiveTask<Integer>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final RecyclerSnapshot snapshot;
+        private final String query;
+        private final int from, to, chunkSize;
+        private final BooleanSupplier cancelled;
+
+        FindTask(RecyclerSnapshot snapshot, String query, int from, int to, int chunkSize, BooleanSupplier cancelled)
+        {
+            this.snapshot = snapshot;
+            this.query = query;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected Integer compute()
+        {
+            if (to - from <= chunkSize)
+            {
+                return FindInRange(snapshot, query, from, to, cancelled);
+            }
+            int middle = (from + to) >>> 1;
+            FindTask right = new FindTask(snapshot, query, middle, to, chunkSize, cancelled);
+            right.fork();
+            int leftIndex = new FindTask(snapshot, query, from, middle, chunkSize, cancelled).compute();
+            if (leftIndex >= 0)
+            {
+                // The left half always holds the lower indexes, so its match wins and the right half is not needed.
+                right.cancel(false);
+                return leftIndex;
+            }
+            return right.join();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable, numbered version of the list of recyclers. Once created a snapshot never changes, so any number of
+ * threads can read from it at the same time without locking, and a reader always sees one consistent set of records
+ * even while the form is saving or deleting entries.
+ *
+ * Records are held in fixed size segments rather than one big array. Changing the list produces a new snapshot that
+ * shares every segment the change did not touch with the old one, so an update copies one segment plus the small
+ * array of segment references instead of every record. This is also what makes keeping older snapshots around for
+ * undo cheap.
+ *
+ * Recycler objects themselves have setters, so a record must never be changed after it has been added to a snapshot.
+ * To change an entry, create a new Recycler and pass it to With().
+ */
+public final class RecyclerSnapshot
+{
+    // Each segment holds 2 ^ SEGMENT_SHIFT records.
+    static final int SEGMENT_SHIFT = 8;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    // Hands out version numbers, so every snapshot ever created has a different one.
+    private static final AtomicLong versions = new AtomicLong();
+
+    // An empty list of records, used as the starting point for a new store.
+    public static final RecyclerSnapshot EMPTY = new RecyclerSnapshot(new Recycler[0][], 0);
+
+    private final Recycler[][] segments;
+    private final int size;
+    private final long version;
+
+    private RecyclerSnapshot(Recycler[][] segments, int size)
+    {
+        this.segments = segments;
+        this.size = size;
+        this.version = versions.incrementAndGet();
+    }
+
+    public int Size()
+    {
+        return size;
+    }
+
+    /**
+     * Every snapshot gets a new version number when it is created, so two snapshots with the same version are always
+     * the same snapshot. After an undo the current version can go back to an older number.
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Gets a record from the snapshot.
+     * @param index The index of the record.
+     * @return The Recycler at the index.
+     */
+    public Recycler Get(int index)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        return segments[index >> SEGMENT_SHIFT][index & SEGMENT_MASK];
+    }
+
+    /**
+     * Copies the records into a new array, for code that needs to sort or otherwise rearrange them.
+     * @return An array with exactly Size() records in it.
+     */
+    public Recycler[] ToArray()
+    {
+        Recycler[] data = new Recycler[size];
+        for (int s = 0, copied = 0; copied < size; s++)
+        {
+            int count = Math.min(SEGMENT_SIZE, size - copied);
+            System.arraycopy(segments[s], 0, data, copied, count);
+            copied += count;
+        }
+        return data;
+    }
+
+    /**
+     * Creates a new snapshot with one record replaced. Only the segment holding the record is copied.
+     * @param index The index of the record to replace.
+     * @param data The new record.
+     * @return The new snapshot.
+     */
+    public RecyclerSnapshot With(int index, Recycler data)
+    {
+        Get(index);
+        Recycler[][] newSegments = segments.clone();
+        int s = index >> SEGMENT_SHIFT;
+        newSegments[s] = segments[s].clone();
+        newSegments[s][index & SEGMENT_MASK] = data;
+        return new RecyclerSnapshot(newSegments, size);
+    }
+
+    /**
+     * Creates a new snapshot with records added to the end. Only the last segment is copied.
+     * @param data The records to add, in order.
+     * @return The new snapshot.
+     */
+    public RecyclerSnapshot WithAdded(Recycler... data)
+    {
+        if (data.length == 0)
+        {
+            return this;
+        }
+        int newSize = size + data.length;
+        int segmentCount = (newSize + SEGMENT_MASK) >> SEGMENT_SHIFT;
+        Recycler[][] newSegments = Arrays.copyOf(segments, segmentCount);
+        int written = 0;
+        while (written < data.length)
+        {
+            int index = size + written;
+            int s = index >> SEGMENT_SHIFT;
+            int offset = index & SEGMENT_MASK;
+            if (offset == 0 || s >= segments.length)
+            {
+                // Start a new segment.
+                newSegments[s] = new Recycler[SEGMENT_SIZE];
+            }
+            else if (newSegments[s] == segments[s])
+            {
+                // The last existing segment is shared with this snapshot, so copy it before writing to it.
+                newSegments[s] = segments[s].clone();
+            }
+            int count = Math.min(SEGMENT_SIZE - offset, data.length - written);
+            System.arraycopy(data, written, newSegments[s], offset, count);
+            written += count;
+        }
+        return new RecyclerSnapshot(newSegments, newSize);
+    }
+
+    /**
+     * Creates a new snapshot with a record inserted at an index and every later record moved up an index. Segments
+     * before the inserted record are shared; the ones from it onwards are rebuilt.
+     * @param index The index to insert at, from 0 to Size().
+     * @param data The record to insert.
+     * @return The new snapshot.
+     */
+    public RecyclerSnapshot WithInserted(int index, Recycler data)
+    {
+        if (index == size)
+        {
+            return WithAdded(data);
+        }
+        Get(index);
+        int newSize = size + 1;
+        int segmentCount = (newSize + SEGMENT_MASK) >> SEGMENT_SHIFT;
+        Recycler[][] newSegments = Arrays.copyOf(segments, segmentCount);
+        int first = index >> SEGMENT_SHIFT;
+        for (int s = first; s < segmentCount; s++)
+        {
+            Recycler[] segment = new Recycler[SEGMENT_SIZE];
+            int start = s << SEGMENT_SHIFT;
+            for (int i = start; i < Math.min(start + SEGMENT_SIZE, newSize); i++)
+            {
+                // Records before the inserted one keep their index, the rest come from one index earlier.
+                segment[i - start] = i < index ? Get(i) : i == index ? data : Get(i - 1);
+            }
+            newSegments[s] = segment;
+        }
+        return new RecyclerSnapshot(newSegments, newSize);
+    }
+
+    /**
+     * Creates a new snapshot with one record removed and every later record moved down an index. Segments before
+     * the removed record are shared; the ones from it onwards are rebuilt.
+     * @param index The index of the record to remove.
+     * @return The new snapshot.
+     */
+    public RecyclerSnapshot WithRemoved(int index)
+    {
+        Get(index);
+        int newSize = size - 1;
+        int segmentCount = (newSize + SEGMENT_MASK) >> SEGMENT_SHIFT;
+        Recycler[][] newSegments = Arrays.copyOf(segments, segmentCount);
+        int first = index >> SEGMENT_SHIFT;
+        for (int s = first; s < segmentCount; s++)
+        {
+            Recycler[] segment = new Recycler[SEGMENT_SIZE];
+            int start = s << SEGMENT_SHIFT;
+            for (int i = start; i < Math.min(start + SEGMENT_SIZE, newSize); i++)
+            {
+                // Records before the removed one keep their index, the rest come from one index further on.
+                segment[i - start] = i < index ? Get(i) : Get(i + 1);
+            }
+            newSegments[s] = segment;
+        }
+        return new RecyclerSnapshot(newSegments, newSize);
+    }
+}
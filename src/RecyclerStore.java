@@ -0,0 +1,264 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the current list of recyclers as an immutable RecyclerSnapshot. Readers call GetSnapshot() once and then
+ * work on that snapshot for as long as they like, on any thread, without being affected by later changes.
+ * Writers are serialised with a lock and each change publishes a complete new snapshot in one step, so a reader
+ * never sees a half finished save or delete.
+ *
+ * Because older snapshots are never changed, the store keeps the last few of them to provide multi-level undo and
+ * redo. The number of undo steps kept can be set with -Drecyclers.undo.depth.
+ *
+ * Every change, including an undo or redo, is reported to the registered listeners as a list of RecyclerChange
+ * objects once the new snapshot has been published.
+ */
+public class RecyclerStore
+{
+    /**
+     * Receives the changes made to the store. Listeners are called while the store's lock is held, in the order the
+     * changes were made, so they should do as little work as possible.
+     */
+    public interface ChangeListener
+    {
+        /**
+         * Called after a new snapshot has been published.
+         * @param previous The snapshot the changes were applied to. Records loaded with Load() are not reported, so
+         *                 this is not always the snapshot from the last notification.
+         * @param snapshot The snapshot the changes produced.
+         * @param changes The changes, in the order they were applied.
+         */
+        void RecordsChanged(RecyclerSnapshot previous, RecyclerSnapshot snapshot, List<RecyclerChange> changes);
+    }
+
+    // A snapshot to return to, together with the changes that lead from the earlier of the two snapshots to the later.
+    private static final class HistoryStep
+    {
+        final RecyclerSnapshot target;
+        final List<RecyclerChange> changes;
+
+        HistoryStep(RecyclerSnapshot target, List<RecyclerChange> changes)
+        {
+            this.target = target;
+            this.changes = changes;
+        }
+    }
+
+    // The snapshot readers currently see. Volatile so a newly published snapshot is visible to every thread at once.
+    private volatile RecyclerSnapshot current = RecyclerSnapshot.EMPTY;
+    // Older snapshots that can be returned to with Undo, most recent first.
+    private final Deque<HistoryStep> undoHistory = new ArrayDeque<>();
+    // Snapshots that were undone and can be returned to with Redo, most recent first.
+    private final Deque<HistoryStep> redoHistory = new ArrayDeque<>();
+    // The maximum number of undo steps to keep.
+    private final int undoDepth;
+    // Everything that wants to hear about changes to the store.
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    public RecyclerStore()
+    {
+        this(Integer.getInteger("recyclers.undo.depth", 50));
+    }
+
+    /**
+     * Creates an empty store.
+     * @param undoDepth The maximum number of undo steps to keep.
+     */
+    public RecyclerStore(int undoDepth)
+    {
+        this.undoDepth = Math.max(0, undoDepth);
+    }
+
+    public void AddChangeListener(ChangeListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void RemoveChangeListener(ChangeListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Gets the current snapshot. This never blocks and the snapshot returned will never change.
+     * @return The current snapshot.
+     */
+    public RecyclerSnapshot GetSnapshot()
+    {
+        return current;
+    }
+
+    public int Size()
+    {
+        return current.Size();
+    }
+
+    /**
+     * Adds records that were read from the data file. Loading is not a change the user made, so it is not recorded
+     * as an undo step and listeners are not told about it. Anything kept alongside the store should be built from
+     * the snapshot once loading has finished.
+     * @param data The records read from the file.
+     */
+    public synchronized void Load(Recycler... data)
+    {
+        current = current.WithAdded(data);
+    }
+
+    /**
+     * Adds a new record to the end of the list.
+     * @param data The record to add.
+     */
+    public synchronized void Add(Recycler data)
+    {
+        Publish(current.WithAdded(data), RecyclerChange.Added(current.Size(), data));
+    }
+
+    /**
+     * Replaces an existing record.
+     * @param index The index of the record to replace.
+     * @param data The new record.
+     */
+    public synchronized void Set(int index, Recycler data)
+    {
+        Publish(current.With(index, data), RecyclerChange.Updated(index, current.Get(index), data));
+    }
+
+    /**
+     * Removes a record, moving every later record down an index.
+     * @param index The index of the record to remove.
+     */
+    public synchronized void Delete(int index)
+    {
+        Publish(current.WithRemoved(index), RecyclerChange.Deleted(index, current.Get(index)));
+    }
+
+    /**
+     * Applies a change that was made to another store, such as one read from a change feed. Unlike Add(), an ADD
+     * change inserts the record at the index it was added at, which is where an undone delete puts it back.
+     * @param change The change to apply.
+     */
+    public synchronized void Apply(RecyclerChange change)
+    {
+        switch (change.getType())
+        {
+            case ADD:
+                Publish(current.WithInserted(change.getIndex(), change.getNewData()), change);
+                break;
+            case UPDATE:
+                Publish(current.With(change.getIndex(), change.getNewData()), change);
+                break;
+            default:
+                Publish(current.WithRemoved(change.getIndex()), change);
+                break;
+        }
+    }
+
+    /**
+     * Applies a batch of adds, updates and deletes as a single change: one new snapshot, one undo step and one
+     * notification to the listeners, with the changes listed in the order described by RecyclerBatch.
+     * @param batch The batch, made from the current snapshot.
+     * @return The changes that were applied, in order.
+     * @throws IllegalStateException If the store has changed since the batch was made. Nothing is applied.
+     */
+    public synchronized List<RecyclerChange> ApplyBatch(RecyclerBatch batch)
+    {
+        if (batch.getBase() != current)
+        {
+            throw new IllegalStateException("The records have changed since the batch was made.");
+        }
+        List<RecyclerChange> changes = batch.Changes();
+        if (!changes.isEmpty())
+        {
+            Publish(batch.Result(), changes);
+        }
+        return changes;
+    }
+
+    public synchronized boolean CanUndo()
+    {
+        return !undoHistory.isEmpty();
+    }
+
+    public synchronized boolean CanRedo()
+    {
+        return !redoHistory.isEmpty();
+    }
+
+    /**
+     * Returns to the snapshot before the last change.
+     * @return True if there was a change to undo.
+     */
+    public synchronized boolean Undo()
+    {
+        if (undoHistory.isEmpty())
+        {
+            return false;
+        }
+        HistoryStep step = undoHistory.pop();
+        RecyclerSnapshot previous = current;
+        redoHistory.push(new HistoryStep(current, step.changes));
+        current = step.target;
+        // Report the changes being undone as their inverses, last change first.
+        List<RecyclerChange> inverse = new ArrayList<>(step.changes.size());
+        for (int i = step.changes.size() - 1; i >= 0; i--)
+        {
+            inverse.add(step.changes.get(i).Inverse());
+        }
+        NotifyListeners(previous, inverse);
+        return true;
+    }
+
+    /**
+     * Re-applies the last change that was undone.
+     * @return True if there was a change to redo.
+     */
+    public synchronized boolean Redo()
+    {
+        if (redoHistory.isEmpty())
+        {
+            return false;
+        }
+        HistoryStep step = redoHistory.pop();
+        RecyclerSnapshot previous = current;
+        undoHistory.push(new HistoryStep(current, step.changes));
+        current = step.target;
+        NotifyListeners(previous, step.changes);
+        return true;
+    }
+
+    // Publishes a snapshot made by a single change.
+    private void Publish(RecyclerSnapshot next, RecyclerChange change)
+    {
+        Publish(next, Collections.singletonList(change));
+    }
+
+    // Makes a new snapshot current, remembering the old one for undo and discarding anything that could be redone.
+    private void Publish(RecyclerSnapshot next, List<RecyclerChange> changes)
+    {
+        if (undoDepth > 0)
+        {
+            undoHistory.push(new HistoryStep(current, changes));
+            if (undoHistory.size() > undoDepth)
+            {
+                undoHistory.removeLast();
+            }
+        }
+        redoHistory.clear();
+        RecyclerSnapshot previous = current;
+        current = next;
+        NotifyListeners(previous, changes);
+    }
+
+    // Tells every listener about changes that have just been published.
+    private void NotifyListeners(RecyclerSnapshot previous, List<RecyclerChange> changes)
+    {
+        for (ChangeListener listener : listeners)
+        {
+            listener.RecordsChanged(previous, current, changes);
+        }
+    }
+}
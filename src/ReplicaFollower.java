@@ -0,0 +1,473 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A read replica that follows the change feed written by another instance of the application, keeping its own
+ * RecyclerStore and RecyclerIndexes up to date without re-reading the data file after every change.
+ *
+ * On its first start the follower reads the leader's data file together with the leader's checkpoint, checking the
+ * data file fingerprint so it knows exactly which change the data includes. It then tails the feed file every poll
+ * interval and applies each new change in sequence order, so it is never more than about one poll interval behind.
+ *
+ * Every few seconds the follower saves its records to its own replica file, with the sequence number and feed position
+ * they include in a state file, so after a restart it carries on from where it stopped. If it ever finds a gap in the
+ * sequence numbers, a change that does not match its records or a feed that has been replaced, it starts again from the
+ * leader's data file.
+ *
+ * Run it with "java Main --follow" next to a leader started with -Drecyclers.feed=true. The leader must not use sharded
+ * storage, as its data file does not keep the records in the order the feed refers to them by. Lookups and the
+ * metrics are served over HTTP on the loopback address, on the port set with -Drecyclers.follow.port (8090 by default):
+ *   /lookup?phone=...  /lookup?website=...  /lookup?address=...  /status  /metrics
+ * The poll and save intervals can be set in milliseconds with -Drecyclers.follow.poll and -Drecyclers.follow.save.
+ */
+public class ReplicaFollower
+{
+    // The most feed text read in one poll, so a long backlog is applied in steps rather than read in one go.
+    private static final int MAX_READ = 4 << 20;
+    // The longest wait between attempts to start again from the leader's data file, in milliseconds.
+    private static final long MAX_RESYNC_WAIT = 30000;
+
+    private final FileManager leaderFile;
+    private final File feedFile;
+    private final File checkpointFile;
+    // The follower's own copy of the records and the feed position they include.
+    private final File replicaFile;
+    private final File stateFile;
+    private final long pollMillis;
+    private final long saveMillis;
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "replica-follower");
+        // Keeps the process running while the follower is.
+        thread.setDaemon(false);
+        return thread;
+    });
+
+    // Replaced together when the follower starts again from the leader's data file.
+    private volatile RecyclerStore store;
+    private volatile RecyclerIndexes indexes;
+    // The sequence number of the last change applied, and the feed position just after it.
+    private volatile long appliedSequence;
+    private long feedPosition;
+    // The highest sequence number seen in the feed, and how long after it was made the last change was applied.
+    private volatile long lastSeenSequence;
+    private volatile long lagMillis;
+    // Why the follower cannot start from the leader's data file yet, or null when it is not waiting.
+    private volatile String waitingFor;
+    // When the replica file was last saved, and whether changes have been applied since.
+    private long lastSaved;
+    private boolean unsaved;
+
+    /**
+     * Creates a follower.
+     * @param leaderFile The leader's file manager, used to find its data file, change feed and checkpoint.
+     */
+    public ReplicaFollower(FileManager leaderFile)
+    {
+        this.leaderFile = leaderFile;
+        this.feedFile = leaderFile.GetCompanionFile(".feed");
+        this.checkpointFile = leaderFile.GetCompanionFile(".checkpoint");
+        this.replicaFile = leaderFile.GetCompanionFile("-replica.csv");
+        this.stateFile = leaderFile.GetCompanionFile("-replica.state");
+        this.pollMillis = Math.max(1, Integer.getInteger("recyclers.follow.poll", 100));
+        this.saveMillis = Math.max(0, Integer.getInteger("recyclers.follow.save", 5000));
+    }
+
+    // Starts the follower as its own process: catches up, then keeps following and serves lookups until stopped.
+    public static void Run()
+    {
+        FileManager leaderFile = FileManager.Create();
+        //The feed refers to records by position, which only works if the data file gives them back in the same order.
+        if (!leaderFile.KeepsRecordOrder())
+        {
+            System.out.println("A replica cannot follow a leader using sharded storage.");
+            return;
+        }
+        ReplicaFollower follower = new ReplicaFollower(leaderFile);
+        follower.Start();
+        follower.StartServer(Integer.getInteger("recyclers.follow.port", 8090));
+    }
+
+    /**
+     * Loads the replica file saved by the last run, or the leader's data file if there is none, then starts
+     * following the feed in the background.
+     */
+    public void Start()
+    {
+        poller.execute(() -> {
+            if (!Resume())
+            {
+                Resynchronise();
+            }
+        });
+        poller.scheduleWithFixedDelay(this::Poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void Stop()
+    {
+        poller.shutdown();
+    }
+
+    public long getAppliedSequence()
+    {
+        return appliedSequence;
+    }
+
+    public long getLagMillis()
+    {
+        return lagMillis;
+    }
+
+    public RecyclerStore GetStore()
+    {
+        return store;
+    }
+
+    /**
+     * Finds the records with the given phone number.
+     * @param phone The phone number in any format.
+     * @return The matching records, or an empty list while the follower is still starting.
+     */
+    public List<Recycler> FindByPhone(String phone)
+    {
+        RecyclerIndexes current = indexes;
+        return current == null ? Collections.emptyList() : current.FindByPhone(phone);
+    }
+
+    /**
+     * Finds the records with the given website host.
+     * @param website A host name or full web address.
+     * @return The matching records, or an empty list while the follower is still starting.
+     */
+    public List<Recycler> FindByWebsite(String website)
+    {
+        RecyclerIndexes current = indexes;
+        return current == null ? Collections.emptyList() : current.FindByWebsite(website);
+    }
+
+    /**
+     * Finds the records whose address contains every word in the given text.
+     * @param address One or more address words.
+     * @return The matching records, or an empty list while the follower is still starting.
+     */
+    public List<Recycler> FindByAddress(String address)
+    {
+        RecyclerIndexes current = indexes;
+        return current == null ? Collections.emptyList() : current.FindByAddress(address);
+    }
+
+    /**
+     * Serves lookups, the follower's status and the metrics report over HTTP on the loopback address.
+     * @param port The port to listen on.
+     * @return The running server, or null if it could not be started.
+     */
+    public HttpServer StartServer(int port)
+    {
+        HttpServer server = MetricsEndpoint.Start(port);
+        if (server == null)
+        {
+            return null;
+        }
+        server.createContext("/lookup", exchange -> {
+            List<Recycler> matches = Collections.emptyList();
+            String query = exchange.getRequestURI().getRawQuery();
+            for (String parameter : query == null ? new String[0] : query.split("&"))
+            {
+                String[] pair = parameter.split("=", 2);
+                String value = pair.length > 1 ? URLDecoder.decode(pair[1], StandardCharsets.UTF_8) : "";
+                switch (pair[0])
+                {
+                    case "phone": matches = FindByPhone(value); break;
+                    case "website": matches = FindByWebsite(value); break;
+                    case "address": matches = FindByAddress(value); break;
+                    default: break;
+                }
+            }
+            StringBuilder body = new StringBuilder();
+            for (Recycler match : matches)
+            {
+                body.append(match).append('\n');
+            }
+            Respond(exchange, body.toString());
+        });
+        server.createContext("/status", exchange -> {
+            RecyclerStore current = store;
+            Respond(exchange, "applied " + appliedSequence + "\nseen " + lastSeenSequence + "\nrecords "
+                    + (current == null ? 0 : current.Size()) + "\nlag_ms " + lagMillis + "\n"
+                    + (waitingFor == null ? "" : "waiting " + waitingFor + "\n"));
+        });
+        return server;
+    }
+
+    private static void Respond(HttpExchange exchange, String text) throws IOException
+    {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody())
+        {
+            output.write(body);
+        }
+    }
+
+    // Reads any new lines in the feed and applies them. Runs on the poller thread.
+    private void Poll()
+    {
+        if (store == null)
+        {
+            return;
+        }
+        Metrics.Timing start = Metrics.Start();
+        int applied = 0;
+        try
+        {
+            if (!feedFile.isFile())
+            {
+                return;
+            }
+            byte[] text;
+            try (RandomAccessFile feed = new RandomAccessFile(feedFile, "r"))
+            {
+                if (feed.length() < feedPosition)
+                {
+                    // The feed is shorter than the part already read, so it has been replaced.
+                    Resynchronise();
+                    return;
+                }
+                text = new byte[(int) Math.min(MAX_READ, feed.length() - feedPosition)];
+                feed.seek(feedPosition);
+                feed.readFully(text);
+            }
+            // Only complete lines are applied; a line still being written is picked up by the next poll.
+            int lineStart = 0;
+            for (int i = 0; i < text.length; i++)
+            {
+                if (text[i] != '\n')
+                {
+                    continue;
+                }
+                String line = new String(text, lineStart, i - lineStart, StandardCharsets.UTF_8).trim();
+                lineStart = i + 1;
+                if (line.isEmpty())
+                {
+                    continue;
+                }
+                ChangeFeed.Entry entry;
+                try
+                {
+                    entry = ChangeFeed.Parse(line);
+                }
+                catch (IllegalArgumentException ex)
+                {
+                    // Treat a line that cannot be read as a missing change and move past it. If the next line does
+                    // not carry on from the last change applied, the check below starts again from the leader's data
+                    // file, which by then includes the change, rather than trying the same line for ever.
+                    System.out.println("Skipping unreadable change feed line: " + ex.getMessage());
+                    continue;
+                }
+                lastSeenSequence = Math.max(lastSeenSequence, entry.sequence);
+                if (entry.sequence <= appliedSequence)
+                {
+                    continue;
+                }
+                if (entry.sequence != appliedSequence + 1 || !Matches(store.GetSnapshot(), entry.change))
+                {
+                    System.out.println("Change " + entry.sequence + " does not follow on from change "
+                            + appliedSequence + ", starting again from the leader's data file.");
+                    Resynchronise();
+                    return;
+                }
+                store.Apply(entry.change);
+                appliedSequence = entry.sequence;
+                lagMillis = System.currentTimeMillis() - entry.timestamp;
+                applied++;
+            }
+            feedPosition += lineStart;
+            if (applied > 0)
+            {
+                unsaved = true;
+            }
+            if (unsaved && System.currentTimeMillis() - lastSaved >= saveMillis)
+            {
+                SaveReplica();
+            }
+        }
+        catch (Exception ex)
+        {
+            Metrics.RecordError(Metrics.Operation.REPLICATE);
+            System.out.println(ex.getMessage());
+        }
+        finally
+        {
+            if (applied > 0)
+            {
+                Metrics.Stop(Metrics.Operation.REPLICATE, start, applied);
+            }
+        }
+    }
+
+    // Checks that a change can be applied to the records, and that any record it replaces or removes is the same one.
+    private static boolean Matches(RecyclerSnapshot snapshot, RecyclerChange change)
+    {
+        if (change.getType() == RecyclerChange.Type.ADD)
+        {
+            return change.getIndex() >= 0 && change.getIndex() <= snapshot.Size();
+        }
+        return change.getIndex() >= 0 && change.getIndex() < snapshot.Size()
+                && snapshot.Get(change.getIndex()).toString().equals(change.getOldData().toString());
+    }
+
+    // Loads the replica file and state saved by the last run. Returns false if they are missing or do not match.
+    private boolean Resume()
+    {
+        try
+        {
+            if (!stateFile.isFile())
+            {
+                return false;
+            }
+            String[] temp = new String(Files.readAllBytes(stateFile.toPath()), StandardCharsets.UTF_8).trim()
+                    .split(";");
+            DataFileFingerprint saved = new DataFileFingerprint(Long.parseLong(temp[2]), Long.parseLong(temp[3]),
+                    Long.parseUnsignedLong(temp[4], 16));
+            if (!saved.equals(DataFileFingerprint.Of(replicaFile)))
+            {
+                return false;
+            }
+            Recycler[] data = new FileManager(replicaFile.getPath()).ReadDataFromFile();
+            if (data == null)
+            {
+                return false;
+            }
+            long position = Long.parseLong(temp[1]);
+            Install(data, Long.parseLong(temp[0]), feedFile.length() >= position ? position : 0);
+            return true;
+        }
+        catch (Exception ex)
+        {
+            System.out.println(ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Starts again from the leader's data file and the sequence number in its checkpoint. The data file fingerprint is
+     * checked before and after reading it, so the records read are exactly the ones the checkpoint describes. Tries
+     * until it succeeds, as the leader may be saving at the same moment, doubling the wait between tries up to
+     * MAX_RESYNC_WAIT. When there is no checkpoint at all it says so once, and /status shows what it is waiting for.
+     */
+    private void Resynchronise()
+    {
+        long wait = pollMillis;
+        String reported = null;
+        while (!poller.isShutdown())
+        {
+            ChangeFeed.Checkpoint checkpoint = ChangeFeed.ReadCheckpoint(checkpointFile);
+            File dataFile = leaderFile.GetDataFile();
+            if (checkpoint != null && checkpoint.fingerprint.equals(DataFileFingerprint.Of(dataFile)))
+            {
+                Recycler[] data = leaderFile.ReadDataFromFile();
+                if (data != null && checkpoint.fingerprint.equals(DataFileFingerprint.Of(dataFile)))
+                {
+                    // Read the feed again from the start, skipping the changes the data file already includes.
+                    Install(data, checkpoint.sequence, 0);
+                    SaveReplica();
+                    waitingFor = null;
+                    if (reported != null)
+                    {
+                        System.out.println("Started following the leader from " + dataFile + ".");
+                    }
+                    return;
+                }
+            }
+            // A checkpoint that does not match the data file is normal for a moment while the leader is saving, so
+            // only report it once the waits have backed off as far as they go. A missing one is reported straight
+            // away, as the leader is not running with the change feed on or has never saved.
+            if (checkpoint == null)
+            {
+                waitingFor = "for the leader's checkpoint " + checkpointFile;
+            }
+            else
+            {
+                waitingFor = "for the leader's checkpoint to match " + dataFile;
+            }
+            if (!waitingFor.equals(reported) && (checkpoint == null || wait == MAX_RESYNC_WAIT))
+            {
+                reported = waitingFor;
+                System.out.println("The replica is waiting " + waitingFor + (checkpoint == null
+                        ? ". Start the leader with -Drecyclers.feed=true and let it finish loading." : ".")
+                        + " Checking again every " + (MAX_RESYNC_WAIT / 1000) + " seconds at most.");
+            }
+            try
+            {
+                Thread.sleep(wait);
+                // Back off, so a leader that is not there is not polled every interval forever.
+                wait = Math.min(MAX_RESYNC_WAIT, wait * 2);
+            }
+            catch (InterruptedException ex)
+            {
+                return;
+            }
+        }
+    }
+
+    // Replaces the store and indexes with new ones holding the given records.
+    private void Install(Recycler[] data, long sequence, long position)
+    {
+        int count = 0;
+        while (count < data.length && data[count] != null)
+        {
+            count++;
+        }
+        // The follower never undoes anything, so it keeps no undo history.
+        RecyclerStore newStore = new RecyclerStore(0);
+        newStore.Load(Arrays.copyOf(data, count));
+        RecyclerIndexes newIndexes = new RecyclerIndexes(newStore);
+        newIndexes.Rebuild();
+        store = newStore;
+        indexes = newIndexes;
+        appliedSequence = sequence;
+        lastSeenSequence = Math.max(lastSeenSequence, sequence);
+        feedPosition = position;
+    }
+
+    // Saves the records and the feed position they include, so a restart carries on from here.
+    private void SaveReplica()
+    {
+        new FileManager(replicaFile.getPath()).WriteDataToFile(store.GetSnapshot().ToArray());
+        DataFileFingerprint fingerprint = DataFileFingerprint.Of(replicaFile);
+        if (fingerprint == null)
+        {
+            return;
+        }
+        File temp = new File(stateFile.getPath() + ".tmp");
+        try
+        {
+            String text = appliedSequence + ";" + feedPosition + ";" + fingerprint.getSize() + ";"
+                    + fingerprint.getLastModified() + ";" + Long.toHexString(fingerprint.getChecksum())
+                    + System.lineSeparator();
+            Files.write(temp.toPath(), text.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            lastSaved = System.currentTimeMillis();
+            unsaved = false;
+        }
+        catch (Exception ex)
+        {
+            System.out.println(ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,602 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * File manager that keeps the records in a directory of shard files instead of a single data file. Each record is
+ * placed in a shard by a partition key, either the first letter of its business name or the start of the postcode in
+ * its address, and a manifest file records the partition key and lists every shard with its record count and a
+ * checksum of its contents.
+ *
+ * Shards are read in parallel when loading. Once TrackChanges() has been called, the store's change notifications
+ * mark the shards holding each added, edited or removed record, and a save only builds, checksums and writes those
+ * shards, so editing one record touches one shard rather than the whole dataset. Without that, or when the shards
+ * on disk do not match the records, a save builds every shard but still only writes the ones whose checksum changed.
+ *
+ * When the manifest was written with a different partition key from the one configured, the shards are still read,
+ * but every shard is rebuilt with the configured key on the next save, and until then region queries read every
+ * shard. ReadShards() reads only the shards for the given keys, and ReadRegion() uses it so
+ * a query about one postcode region, when partitioned by postcode, or one range of business names, when partitioned
+ * by name, never touches the rest of the data. Run one with "java Main --region 2" or "java Main --region G".
+ *
+ * Records are loaded shard by shard in key order, so the order of the list can change from the order it was saved in,
+ * although records in the same shard keep their order. The change feed refers to records by position, so it cannot be
+ * used with sharded storage. If the shard directory does not exist yet the records are read from the ordinary data
+ * file, and the first save creates the shards.
+ *
+ * Sharding is switched on with -Drecyclers.store.sharded=true. The partition key is set with
+ * -Drecyclers.shard.key=name or -Drecyclers.shard.key=postcode, and the number of postcode digits used with
+ * -Drecyclers.shard.digits (1 by default, which groups the records by state).
+ */
+public class ShardedFileManager extends FileManager
+{
+    // The ways records can be partitioned into shards.
+    public enum PartitionKey
+    {
+        NAME,
+        POSTCODE
+    }
+
+    // The key for records that have no business name letter or postcode to partition by.
+    static final String OTHER_KEY = "other";
+    private static final String MANIFEST_NAME = "manifest.txt";
+    // The first field of the manifest line that records the partition key.
+    private static final String PARTITION_FIELD = "partition";
+
+    // The directory that holds the shard files and the manifest.
+    private final File directory;
+    private final PartitionKey partitionKey;
+    private final int postcodeDigits;
+    // Whether a save has to build every shard, because the shards on disk were not read in full with the configured
+    // partition key, or changes are not being tracked. Guarded by this object's lock.
+    private boolean allDirty = true;
+    // Whether the shards on disk were last read or written with the configured partition key.
+    private boolean inSync = false;
+    // The keys of the shards changed since the last save, with the version of the snapshot that last changed each.
+    private final Map<String, Long> dirtyShards = new HashMap<>();
+
+    // The contents of the manifest: the partition key the shards were built with and the shards in key order.
+    private static final class Manifest
+    {
+        // The partition key, such as "name" or "postcode;2", or null if the manifest does not record it.
+        String partition;
+        final Map<String, ShardInfo> shards = new TreeMap<>();
+    }
+
+    // One line of the manifest: a shard's key, file name, record count and checksum.
+    private static final class ShardInfo
+    {
+        final String key;
+        final String fileName;
+        final int count;
+        final long checksum;
+
+        ShardInfo(String key, String fileName, int count, long checksum)
+        {
+            this.key = key;
+            this.fileName = fileName;
+            this.count = count;
+            this.checksum = checksum;
+        }
+    }
+
+    // Creates a sharded file manager for the default data file, configured from the system properties.
+    public ShardedFileManager()
+    {
+        this("LocalRecyclers.csv",
+                PartitionKey.valueOf(System.getProperty("recyclers.shard.key", "name").toUpperCase()),
+                Integer.getInteger("recyclers.shard.digits", 1));
+    }
+
+    /**
+     * Creates a sharded file manager.
+     * @param fileName The ordinary data file. The shards are kept in a directory next to it with "-shards" in place
+     *                 of the extension, and the file itself is only read when that directory does not exist yet.
+     * @param partitionKey How to choose the shard for each record.
+     * @param postcodeDigits The number of leading postcode digits that make up a POSTCODE key.
+     */
+    public ShardedFileManager(String fileName, PartitionKey partitionKey, int postcodeDigits)
+    {
+        super(fileName);
+        String baseName = fileName.endsWith(".csv") ? fileName.substring(0, fileName.length() - 4) : fileName;
+        this.directory = new File(baseName + "-shards");
+        this.partitionKey = partitionKey;
+        this.postcodeDigits = Math.max(1, Math.min(4, postcodeDigits));
+    }
+
+    @Override
+    public boolean SupportsPaging()
+    {
+        return false;
+    }
+
+    // Records come back grouped by shard, so the change feed cannot be used with sharded storage.
+    @Override
+    public boolean KeepsRecordOrder()
+    {
+        return false;
+    }
+
+    // The manifest changes whenever any shard does, so it stands in for the whole set of shards.
+    @Override
+    public File GetDataFile()
+    {
+        File manifest = new File(directory, MANIFEST_NAME);
+        return manifest.isFile() ? manifest : super.GetDataFile();
+    }
+
+    // Describes the configured partition key as it is written in the manifest.
+    private String Partition()
+    {
+        return partitionKey == PartitionKey.NAME ? "name" : "postcode;" + postcodeDigits;
+    }
+
+    /**
+     * Works out which shard a record belongs in.
+     * @param data The record.
+     * @return The upper case first letter of the business name, the leading postcode digits, or "other".
+     */
+    public String ShardKey(Recycler data)
+    {
+        if (partitionKey == PartitionKey.NAME)
+        {
+            String name = data.getBusinessName().trim();
+            if (!name.isEmpty() && Character.isLetter(name.charAt(0)))
+            {
+                return String.valueOf(Character.toUpperCase(name.charAt(0)));
+            }
+            return OTHER_KEY;
+        }
+        String postcode = RecyclerQueries.Postcode(data);
+        return postcode == null ? OTHER_KEY : postcode.substring(0, postcodeDigits);
+    }
+
+    /**
+     * Lists the shards currently saved.
+     * @return The shard keys in the order they are loaded, or an empty array if nothing has been saved yet.
+     */
+    public String[] ShardKeys()
+    {
+        try
+        {
+            return ReadManifest().shards.keySet().toArray(new String[0]);
+        }
+        catch (Exception ex)
+        {
+            System.out.println(ex.getMessage());
+            return new String[0];
+        }
+    }
+
+    /**
+     * Marks the shards that the store's changes touch from now on, so saves only build those shards. Changes are only
+     * tracked from here, so the store must hold exactly the records last read from or written to the shards.
+     * @param store The store holding the records that were loaded from the shards.
+     */
+    @Override
+    public void TrackChanges(RecyclerStore store)
+    {
+        synchronized (this)
+        {
+            allDirty = !inSync;
+            dirtyShards.clear();
+        }
+        store.AddChangeListener((previous, snapshot, changes) -> {
+            synchronized (this)
+            {
+                for (RecyclerChange change : changes)
+                {
+                    if (change.getOldData() != null)
+                    {
+                        dirtyShards.put(ShardKey(change.getOldData()), snapshot.getVersion());
+                    }
+                    if (change.getNewData() != null)
+                    {
+                        dirtyShards.put(ShardKey(change.getNewData()), snapshot.getVersion());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the records to their shards, building only the shards changed since the last save when changes are
+     * being tracked, and writing only the shards whose contents have actually changed.
+     * @param snapshot The records to write.
+     */
+    @Override
+    public void WriteDataToFile(RecyclerSnapshot snapshot)
+    {
+        Set<String> dirty;
+        synchronized (this)
+        {
+            dirty = allDirty ? null : new HashSet<>(dirtyShards.keySet());
+        }
+        if (!WriteShards(snapshot.ToArray(), dirty))
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            inSync = true;
+            allDirty = false;
+            // Changes made after the snapshot was taken are not in the shards yet, so keep them for the next save.
+            dirtyShards.values().removeIf(version -> version <= snapshot.getVersion());
+        }
+    }
+
+    /**
+     * Writes the records to their shards, rewriting only the shards whose contents have changed since the last save.
+     * @param data An array of Recycler objects, ending at the first null entry.
+     */
+    @Override
+    public void WriteDataToFile(Recycler[] data)
+    {
+        if (WriteShards(data, null))
+        {
+            synchronized (this)
+            {
+                inSync = true;
+            }
+        }
+    }
+
+    // Builds the shards with the given keys, or every shard when the keys are null, and writes the ones that have
+    // changed. The other shards are left as the manifest lists them. Returns false if an error occurred.
+    private boolean WriteShards(Recycler[] data, Set<String> keys)
+    {
+        Metrics.Timing start = Metrics.Start();
+        int written = 0;
+        boolean saved = false;
+        try
+        {
+            // Build each shard's file contents, keeping the records of a shard in the order they were given.
+            Map<String, StringBuilder> contents = new TreeMap<>();
+            Map<String, Integer> counts = new TreeMap<>();
+            for (Recycler record : data)
+            {
+                if (record == null)
+                {
+                    break;
+                }
+                String key = ShardKey(record);
+                if (keys != null && !keys.contains(key))
+                {
+                    continue;
+                }
+                contents.computeIfAbsent(key, k -> new StringBuilder()).append(record).append(System.lineSeparator());
+                counts.merge(key, 1, Integer::sum);
+            }
+
+            if (!directory.isDirectory() && !directory.mkdirs())
+            {
+                throw new IllegalStateException("Could not create the shard directory " + directory);
+            }
+            Manifest previous = ReadManifest();
+            Manifest manifest = new Manifest();
+            manifest.partition = Partition();
+            if (keys != null)
+            {
+                // Only the changed shards are being built, so keep the others as they are.
+                for (ShardInfo old : previous.shards.values())
+                {
+                    if (!keys.contains(old.key))
+                    {
+                        manifest.shards.put(old.key, old);
+                    }
+                }
+            }
+            boolean changed = !manifest.partition.equals(previous.partition);
+            for (Map.Entry<String, StringBuilder> entry : contents.entrySet())
+            {
+                String key = entry.getKey();
+                byte[] bytes = entry.getValue().toString().getBytes(StandardCharsets.UTF_8);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                ShardInfo shard = new ShardInfo(key, "shard-" + key + ".csv", counts.get(key), crc.getValue());
+                manifest.shards.put(key, shard);
+                ShardInfo old = previous.shards.get(key);
+                // Leave the shard file alone if it already holds exactly these records.
+                if (old != null && old.count == shard.count && old.checksum == shard.checksum
+                        && new File(directory, old.fileName).isFile())
+                {
+                    continue;
+                }
+                WriteAtomically(new File(directory, shard.fileName), bytes);
+                written += shard.count;
+                changed = true;
+            }
+            // The manifest is replaced before the shards that no longer hold any records are removed, so it never
+            // lists a shard that has not been written or has been removed.
+            if (changed || previous.shards.size() != manifest.shards.size() || previous.shards.isEmpty())
+            {
+                WriteManifest(manifest);
+            }
+            for (ShardInfo old : previous.shards.values())
+            {
+                if (!manifest.shards.containsKey(old.key))
+                {
+                    Files.deleteIfExists(new File(directory, old.fileName).toPath());
+                }
+            }
+            saved = true;
+        }
+        catch (Exception ex)
+        {
+            Metrics.RecordError(Metrics.Operation.WRITE);
+            System.out.println(ex.getMessage());
+        }
+        Metrics.Stop(Metrics.Operation.WRITE, start, written);
+        return saved;
+    }
+
+    /**
+     * Reads every shard, in parallel.
+     * @return An array of Recycler objects with a null entry after the last record, or null if an error occurred.
+     */
+    @Override
+    public Recycler[] ReadDataFromFile()
+    {
+        if (!new File(directory, MANIFEST_NAME).isFile())
+        {
+            return super.ReadDataFromFile();
+        }
+        List<Recycler> records = new ArrayList<>();
+        boolean read = ReadDataFromFile(Integer.MAX_VALUE, batch -> records.addAll(Arrays.asList(batch)));
+        return read ? records.toArray(new Recycler[records.size() + 1]) : null;
+    }
+
+    /**
+     * Reads every shard in parallel, handing the records to the consumer shard by shard in key order.
+     * @param batchSize The maximum number of records in each batch.
+     * @param batchConsumer Receives each batch of records.
+     * @return True if every shard was read, false if an error occurred.
+     */
+    @Override
+    public boolean ReadDataFromFile(int batchSize, Consumer<Recycler[]> batchConsumer)
+    {
+        if (!new File(directory, MANIFEST_NAME).isFile())
+        {
+            return super.ReadDataFromFile(batchSize, batchConsumer);
+        }
+        try
+        {
+            Manifest manifest = ReadManifest();
+            boolean partitioned = Partition().equals(manifest.partition);
+            if (!partitioned)
+            {
+                System.out.println("The shards in " + directory + " are partitioned by "
+                        + (manifest.partition == null ? "an unknown key" : manifest.partition.replace(';', ' '))
+                        + " rather than " + Partition().replace(';', ' ') + ", so every shard will be rebuilt on the "
+                        + "next save.");
+            }
+            boolean read = ReadShards(manifest.shards.values(), batchSize, batchConsumer);
+            synchronized (this)
+            {
+                inSync = read && partitioned;
+            }
+            return read;
+        }
+        catch (Exception ex)
+        {
+            Metrics.RecordError(Metrics.Operation.LOAD);
+            System.out.println(ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads the records in one postcode region or range of business names, reading only the shards that can hold
+     * them. When the region is a different kind from the partition key, every shard has to be read.
+     * @param region The leading postcode digits or leading business name letters.
+     * @return The matching records, in shard key order, or null if an error occurred.
+     */
+    @Override
+    public Recycler[] ReadRegion(String region)
+    {
+        if (!new File(directory, MANIFEST_NAME).isFile())
+        {
+            return super.ReadRegion(region);
+        }
+        List<String> keys = new ArrayList<>();
+        try
+        {
+            Manifest manifest = ReadManifest();
+            // Shards built with another partition key are not split along the lines MayHoldRegion() expects.
+            boolean partitioned = Partition().equals(manifest.partition);
+            for (String key : manifest.shards.keySet())
+            {
+                if (!partitioned || MayHoldRegion(key, region))
+                {
+                    keys.add(key);
+                }
+            }
+        }
+        catch (Exception ex)
+        {
+            Metrics.RecordError(Metrics.Operation.LOAD);
+            System.out.println(ex.getMessage());
+            return null;
+        }
+        Recycler[] records = ReadShards(keys.toArray(new String[0]));
+        return records == null ? null : SelectRegion(records, region);
+    }
+
+    // Works out from its key whether a shard can hold any records in a region.
+    private boolean MayHoldRegion(String key, String region)
+    {
+        boolean postcodeRegion = RecyclerQueries.IsPostcodeRegion(region);
+        if (region.isEmpty() || postcodeRegion != (partitionKey == PartitionKey.POSTCODE))
+        {
+            // The shards are not split along the lines of the region, so any of them may hold matching records.
+            return true;
+        }
+        if (key.equals(OTHER_KEY))
+        {
+            // Records with no postcode or no leading letter can never be in a region of the same kind.
+            return false;
+        }
+        if (postcodeRegion)
+        {
+            // The key and the region are both leading postcode digits, so one must start with the other.
+            return key.startsWith(region) || region.startsWith(key);
+        }
+        return key.equalsIgnoreCase(region.substring(0, 1));
+    }
+
+    /**
+     * Reads only the shards with the given keys, such as the shards for one state or one range of business names.
+     * @param keys The shard keys, as returned by ShardKey() or ShardKeys(). Keys with no shard are ignored.
+     * @return The records in those shards, in key order, or null if an error occurred.
+     */
+    public Recycler[] ReadShards(String... keys)
+    {
+        try
+        {
+            Map<String, ShardInfo> manifest = ReadManifest().shards;
+            List<ShardInfo> selected = new ArrayList<>();
+            for (String key : keys)
+            {
+                ShardInfo shard = manifest.get(key);
+                if (shard != null && !selected.contains(shard))
+                {
+                    selected.add(shard);
+                }
+            }
+            selected.sort((a, b) -> a.key.compareTo(b.key));
+            List<Recycler> records = new ArrayList<>();
+            if (!ReadShards(selected, Integer.MAX_VALUE, batch -> records.addAll(Arrays.asList(batch))))
+            {
+                return null;
+            }
+            return records.toArray(new Recycler[0]);
+        }
+        catch (Exception ex)
+        {
+            Metrics.RecordError(Metrics.Operation.LOAD);
+            System.out.println(ex.getMessage());
+            return null;
+        }
+    }
+
+    // Starts reading every shard at once on the query pool, then hands the results over in the order given.
+    private boolean ReadShards(Iterable<ShardInfo> shards, int batchSize, Consumer<Recycler[]> batchConsumer)
+    {
+        Metrics.Timing start = Metrics.Start();
+        List<ForkJoinTask<Recycler[]>> reads = new ArrayList<>();
+        for (ShardInfo shard : shards)
+        {
+            reads.add(RecyclerQueries.pool.submit(() -> ReadShard(shard)));
+        }
+        int counter = 0;
+        for (ForkJoinTask<Recycler[]> read : reads)
+        {
+            Recycler[] records = read.join();
+            if (records == null)
+            {
+                Metrics.RecordError(Metrics.Operation.LOAD);
+                return false;
+            }
+            for (int from = 0; from < records.length; from += batchSize)
+            {
+                batchConsumer.accept(Arrays.copyOfRange(records, from, (int) Math.min(records.length, (long) from + batchSize)));
+            }
+            counter += records.length;
+        }
+        Metrics.Stop(Metrics.Operation.LOAD, start, counter);
+        return true;
+    }
+
+    // Reads a single shard file. Returns null if it could not be read.
+    private Recycler[] ReadShard(ShardInfo shard)
+    {
+        // Shards are written as UTF-8, so read them back the same way whatever the platform default is.
+        try (BufferedReader buffer = Files.newBufferedReader(new File(directory, shard.fileName).toPath(),
+                StandardCharsets.UTF_8))
+        {
+            List<Recycler> records = new ArrayList<>(shard.count);
+            String line;
+            Metrics.Timing parseStart = Metrics.Start();
+            while ((line = buffer.readLine()) != null)
+            {
+                records.add(ParseRecycler(line));
+            }
+            Metrics.Stop(Metrics.Operation.PARSE, parseStart, records.size());
+            return records.toArray(new Recycler[0]);
+        }
+        catch (Exception ex)
+        {
+            System.out.println(ex.getMessage());
+            return null;
+        }
+    }
+
+    // Reads the manifest, or returns an empty one if there is no manifest yet. It is written as UTF-8, so it is read
+    // back the same way whatever the platform default is.
+    private Manifest ReadManifest() throws Exception
+    {
+        Manifest manifest = new Manifest();
+        File file = new File(directory, MANIFEST_NAME);
+        if (!file.isFile())
+        {
+            return manifest;
+        }
+        try (BufferedReader buffer = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = buffer.readLine()) != null)
+            {
+                if (line.isEmpty() || line.startsWith("#"))
+                {
+                    continue;
+                }
+                if (line.startsWith(PARTITION_FIELD + ";"))
+                {
+                    manifest.partition = line.substring(PARTITION_FIELD.length() + 1);
+                    continue;
+                }
+                String[] temp = line.split(";");
+                manifest.shards.put(temp[0], new ShardInfo(temp[0], temp[1], Integer.parseInt(temp[2]),
+                        Long.parseLong(temp[3], 16)));
+            }
+        }
+        return manifest;
+    }
+
+    // Writes the manifest. The partition line comes first, and no shard key is ever "partition", so it cannot be
+    // mistaken for a shard.
+    private void WriteManifest(Manifest manifest) throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        text.append("# Shard manifest").append(System.lineSeparator());
+        text.append(PARTITION_FIELD).append(';').append(manifest.partition).append(System.lineSeparator());
+        text.append("# key;file;records;crc32").append(System.lineSeparator());
+        for (ShardInfo shard : manifest.shards.values())
+        {
+            text.append(shard.key).append(';').append(shard.fileName).append(';').append(shard.count).append(';')
+                    .append(Long.toHexString(shard.checksum)).append(System.lineSeparator());
+        }
+        WriteAtomically(new File(directory, MANIFEST_NAME), text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Writes a file to a temporary name first and then moves it into place, so a failed write never leaves half a file.
+    private static void WriteAtomically(File file, byte[] bytes) throws Exception
+    {
+        File temp = new File(file.getPath() + ".tmp");
+        Files.write(temp.toPath(), bytes);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
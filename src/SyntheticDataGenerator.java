@@ -0,0 +1,119 @@
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates realistic looking Recycler records for load testing. Names, addresses, phone numbers, websites and
+ * material lists are built from small vocabularies, so values repeat and overlap the way a real directory does.
+ * The same seed always produces the same records, so two builds can be compared on identical data.
+ */
+public class SyntheticDataGenerator
+{
+    private static final String[] NAME_PREFIXES = {
+            "Green", "Eco", "Clean", "Earth", "Planet", "Circular", "Second Life", "Reclaim", "Renew", "Urban",
+            "Harbour", "Western", "Northside", "Southern", "Coastal", "Valley", "Metro", "Community", "Precision",
+            "Blue Sky"
+    };
+    private static final String[] NAME_SUFFIXES = {
+            "Recycling", "Recyclers", "Waste Solutions", "Salvage", "Scrap Metals", "E-Waste", "Resource Recovery",
+            "Collections", "Depot", "Exchange", "Environmental", "Reuse Centre"
+    };
+    private static final String[] BUSINESS_TYPES = { "Pty Ltd", "Co", "Services", "Group", "" };
+    private static final String[] STREETS = {
+            "George St", "Pitt St", "Church St", "Victoria Rd", "Parramatta Rd", "King St", "Elizabeth St",
+            "Railway Pde", "Station St", "High St", "Main Rd", "Industrial Dr", "Beach Rd", "Park Ave", "Queen St"
+    };
+    private static final String[][] SUBURBS = {
+            { "Sydney", "NSW", "2000" }, { "Parramatta", "NSW", "2150" }, { "Newcastle", "NSW", "2300" },
+            { "Wollongong", "NSW", "2500" }, { "Melbourne", "VIC", "3000" }, { "Geelong", "VIC", "3220" },
+            { "Brisbane", "QLD", "4000" }, { "Gold Coast", "QLD", "4217" }, { "Adelaide", "SA", "5000" },
+            { "Perth", "WA", "6000" }, { "Hobart", "TAS", "7000" }, { "Darwin", "NT", "0800" },
+            { "Canberra", "ACT", "2600" }
+    };
+    private static final String[] MATERIALS = {
+            "batteries", "e-waste", "paper", "cardboard", "glass", "aluminium cans", "steel", "copper", "plastics",
+            "soft plastics", "motor oil", "tyres", "mobile phones", "printer cartridges", "light globes", "paint",
+            "textiles", "timber", "green waste", "concrete", "polystyrene", "computers", "whitegoods", "car batteries"
+    };
+
+    private final Random random;
+
+    /**
+     * Creates a generator.
+     * @param seed The seed for the random number generator. The same seed always produces the same records.
+     */
+    public SyntheticDataGenerator(long seed)
+    {
+        random = new Random(seed);
+    }
+
+    /**
+     * Generates a number of records.
+     * @param count The number of records to generate.
+     * @return The generated records.
+     */
+    public Recycler[] Generate(int count)
+    {
+        Recycler[] data = new Recycler[count];
+        for (int i = 0; i < count; i++)
+        {
+            data[i] = Next();
+        }
+        return data;
+    }
+
+    // Generates a single record.
+    public Recycler Next()
+    {
+        String name = Pick(NAME_PREFIXES) + " " + Pick(NAME_SUFFIXES);
+        String type = Pick(BUSINESS_TYPES);
+        if (!type.isEmpty())
+        {
+            name += " " + type;
+        }
+        String[] suburb = Pick(SUBURBS);
+        String address = (1 + random.nextInt(400)) + " " + Pick(STREETS) + ", " + suburb[0] + " " + suburb[1] + " "
+                + suburb[2];
+        // Landline numbers use the area code of the state, mobiles start with 04.
+        String phone = random.nextInt(3) == 0
+                ? String.format("04%02d %03d %03d", random.nextInt(100), random.nextInt(1000), random.nextInt(1000))
+                : String.format("(0%d) %04d %04d", AreaCode(suburb[1]), random.nextInt(10000), random.nextInt(10000));
+        String website = "www." + name.toLowerCase().replaceAll("[^a-z0-9]+", "") + random.nextInt(1000) + ".com.au";
+        return new Recycler(name, address, phone, website, Materials());
+    }
+
+    // Picks between one and five different materials.
+    private String Materials()
+    {
+        Set<String> picked = new LinkedHashSet<>();
+        int count = 1 + random.nextInt(5);
+        while (picked.size() < count)
+        {
+            picked.add(Pick(MATERIALS));
+        }
+        return String.join(", ", picked);
+    }
+
+    private <T> T Pick(T[] values)
+    {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static int AreaCode(String state)
+    {
+        switch (state)
+        {
+            case "VIC":
+            case "TAS":
+                return 3;
+            case "QLD":
+                return 7;
+            case "SA":
+            case "WA":
+            case "NT":
+                return 8;
+            default:
+                return 2;
+        }
+    }
+}
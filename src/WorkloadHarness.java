@@ -0,0 +1,346 @@
+import javax.swing.*;
+import java.awt.GraphicsEnvironment;
+import java.awt.event.ActionEvent;
+import java.io.BufferedReader;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end load test that drives a real MainForm the same way a user would. It writes a synthetic dataset to its own
+ * data file, opens a MainForm on that file and then replays a workload of New, Save, Delete, Find, Filter, Sort,
+ * Lookup and navigation actions by passing button events to MainForm.actionPerformed on the event dispatch thread.
+ * The time each action keeps the event dispatch thread busy is recorded per action type, and the latency
+ * distributions, heap and garbage collection figures and the Metrics report are written to a report file.
+ *
+ * The form is never shown and skips its confirmation messages, and it does not search as the fields are typed into, so
+ * every step runs the same way on every run and no background search adds to the measured times. Swing still needs a
+ * display to create the window, so on a build machine without a screen run the harness under a virtual display such
+ * as xvfb-run. In a headless JVM the harness stops straight away with a message saying so.
+ *
+ * Usage: java WorkloadHarness [--records N] [--actions N] [--seed N] [--data file] [--report file] [--script file]
+ * A script file is UTF-8 text holding one action per line, optionally followed by a space and its argument, for
+ * example "FIND green".
+ * Without a script a workload of the given length is generated from the seed, so the same seed always replays the
+ * same actions against the same data.
+ */
+public class WorkloadHarness
+{
+    // The actions a workload can contain, with how often each appears in a generated workload.
+    private static final Map<String, Integer> ACTION_WEIGHTS = new LinkedHashMap<>();
+
+    static
+    {
+        ACTION_WEIGHTS.put("NEXT", 20);
+        ACTION_WEIGHTS.put("PREV", 10);
+        ACTION_WEIGHTS.put("FIRST", 3);
+        ACTION_WEIGHTS.put("LAST", 3);
+        ACTION_WEIGHTS.put("FIND", 15);
+        ACTION_WEIGHTS.put("FILTER", 10);
+        ACTION_WEIGHTS.put("SORT", 3);
+        ACTION_WEIGHTS.put("BINARY", 2);
+        ACTION_WEIGHTS.put("LOOKUP", 6);
+        ACTION_WEIGHTS.put("NEW_SAVE", 12);
+        ACTION_WEIGHTS.put("EDIT_SAVE", 10);
+        ACTION_WEIGHTS.put("DELETE", 5);
+        ACTION_WEIGHTS.put("UNDO", 1);
+    }
+
+    // Search words used by generated Find, Filter and Lookup actions.
+    private static final String[] FIND_WORDS = { "green", "eco", "recycl", "metro", "salvage", "depot", "blue sky" };
+    private static final String[] FILTER_WORDS = { "batteries", "e-waste", "glass", "paper", "tyres", "motor oil" };
+    private static final String[] LOOKUP_WORDS = { "george st", "parramatta", "2000", "melbourne vic", "brisbane" };
+
+    private final MainForm form;
+    private final SyntheticDataGenerator generator;
+    // The latency distribution of each action type, in the order the action types were first seen.
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+
+    private WorkloadHarness(MainForm form, SyntheticDataGenerator generator)
+    {
+        this.form = form;
+        this.generator = generator;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int records = 10000;
+        int actions = 5000;
+        long seed = 42;
+        String dataFile = "workload-data.csv";
+        String reportFile = "workload-report.txt";
+        String scriptFile = null;
+        for (int i = 0; i < args.length; i += 2)
+        {
+            //Every option takes a value. Stop rather than quietly running with a default the caller did not ask for.
+            if (i + 1 == args.length)
+            {
+                throw new IllegalArgumentException("Missing value for option " + args[i]);
+            }
+            switch (args[i])
+            {
+                case "--records": records = Integer.parseInt(args[i + 1]); break;
+                case "--actions": actions = Integer.parseInt(args[i + 1]); break;
+                case "--seed": seed = Long.parseLong(args[i + 1]); break;
+                case "--data": dataFile = args[i + 1]; break;
+                case "--report": reportFile = args[i + 1]; break;
+                case "--script": scriptFile = args[i + 1]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        // The form is a real window, so stop before writing any data if there is no display to create it on.
+        if (GraphicsEnvironment.isHeadless())
+        {
+            throw new IllegalStateException("The workload harness needs a display to create the form. Run it without "
+                    + "-Djava.awt.headless=true, under a virtual display such as xvfb-run.");
+        }
+
+        // Serve the metrics report over HTTP while the workload runs when a port is given.
+        MetricsEndpoint.StartIfConfigured();
+        Metrics.SetEnabled(true);
+
+        // Write the synthetic dataset and open a form on it.
+        SyntheticDataGenerator generator = new SyntheticDataGenerator(seed);
+        FileManager file = new FileManager(dataFile);
+        file.WriteDataToFile(generator.Generate(records));
+        long loadStart = System.nanoTime();
+        MainForm[] created = new MainForm[1];
+        SwingUtilities.invokeAndWait(() -> created[0] = new MainForm(file, false));
+        MainForm form = created[0];
+        if (!form.loadComplete.await(10, TimeUnit.MINUTES))
+        {
+            throw new IllegalStateException("The data file did not finish loading.");
+        }
+        long loadNanos = System.nanoTime() - loadStart;
+        // Give the lookup indexes a chance to finish building so Lookup actions measure real lookups.
+        for (int i = 0; i < 600 && !form.indexes.IsReady(); i++)
+        {
+            Thread.sleep(100);
+        }
+
+        List<String[]> script = scriptFile != null ? ReadScript(scriptFile) : GenerateScript(actions, seed);
+        WorkloadHarness harness = new WorkloadHarness(form, generator);
+
+        ResetPeakUsage();
+        long heapBefore = UsedHeap();
+        long[] gcBefore = GcTotals();
+        long start = System.nanoTime();
+        for (String[] step : script)
+        {
+            harness.Run(step[0], step[1]);
+        }
+        long elapsed = System.nanoTime() - start;
+        long[] gcAfter = GcTotals();
+
+        try (PrintWriter report = new PrintWriter(new FileWriter(reportFile)))
+        {
+            report.printf("Workload report %s%n", LocalDateTime.now());
+            report.printf("Java %s, %d processors, max heap %d MB%n", System.getProperty("java.version"),
+                    Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() >> 20);
+            report.printf("Records %d, actions %d, seed %d%s%n", records, script.size(), seed,
+                    scriptFile != null ? ", script " + scriptFile : "");
+            report.printf("Initial load %.1f ms, workload %.1f ms, %.1f actions/s%n%n", loadNanos / 1e6, elapsed / 1e6,
+                    script.size() / (elapsed / 1e9));
+            report.printf("%-10s %8s %10s %10s %10s %10s %10s%n", "action", "count", "mean(ms)", "p50(ms)", "p90(ms)",
+                    "p99(ms)", "max(ms)");
+            for (Map.Entry<String, LatencyHistogram> entry : harness.latencies.entrySet())
+            {
+                LatencyHistogram histogram = entry.getValue();
+                report.printf("%-10s %8d %10.3f %10.3f %10.3f %10.3f %10.3f%n", entry.getKey(), histogram.getCount(),
+                        histogram.getTotalNanos() / 1e6 / Math.max(1, histogram.getCount()),
+                        histogram.Percentile(0.50) / 1e6, histogram.Percentile(0.90) / 1e6,
+                        histogram.Percentile(0.99) / 1e6, histogram.getMaxNanos() / 1e6);
+            }
+            report.printf("%nHeap used before %d MB, after %d MB, peak %d MB%n", heapBefore >> 20, UsedHeap() >> 20,
+                    PeakHeap() >> 20);
+            report.printf("GC collections %d, GC time %d ms%n", gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            {
+                report.printf("  %s: %d collections, %d ms total%n", gc.getName(), gc.getCollectionCount(),
+                        gc.getCollectionTime());
+            }
+            report.printf("%nOperation metrics%n%s%n", Metrics.Report());
+        }
+        System.out.println("Workload report written to " + reportFile);
+        System.exit(0);
+    }
+
+    /**
+     * Runs a single action on the event dispatch thread and records how long it kept the thread busy.
+     * @param action The action name.
+     * @param argument The search text for Find, Filter and Lookup, otherwise ignored.
+     */
+    private void Run(String action, String argument) throws Exception
+    {
+        long[] nanos = new long[1];
+        SwingUtilities.invokeAndWait(() -> {
+            long start = System.nanoTime();
+            Perform(action, argument);
+            nanos[0] = System.nanoTime() - start;
+        });
+        latencies.computeIfAbsent(action, key -> new LatencyHistogram()).Record(nanos[0]);
+    }
+
+    // Sets up the form fields an action needs and presses the matching button. Runs on the event dispatch thread.
+    private void Perform(String action, String argument)
+    {
+        switch (action)
+        {
+            case "NEXT": Click(form.btnNext); break;
+            case "PREV": Click(form.btnPrev); break;
+            case "FIRST": Click(form.btnFirst); break;
+            case "LAST": Click(form.btnLast); break;
+            case "SORT": Click(form.btnSort); break;
+            case "DELETE": Click(form.btnDelete); break;
+            case "UNDO": Click(form.btnUndo); break;
+            case "FIND":
+                form.txtFind.setText(argument);
+                Click(form.btnFind);
+                break;
+            case "LOOKUP":
+                form.txtFind.setText(argument);
+                Click(form.btnLookup);
+                break;
+            case "FILTER":
+            case "BINARY":
+                form.txtFilter.setText(argument);
+                Click(action.equals("FILTER") ? form.btnFilter : form.btnBinary);
+                break;
+            case "NEW_SAVE":
+                Click(form.btnNew);
+                Recycler data = generator.Next();
+                form.txtBusinessName.setText(data.getBusinessName());
+                form.txtAddress.setText(data.getAddress());
+                form.txtPhone.setText(data.getPhone());
+                form.txtWebsite.setText(data.getWebsite());
+                form.txtRecycles.setText(data.getRecycles());
+                Click(form.btnSave);
+                break;
+            case "EDIT_SAVE":
+                form.txtRecycles.setText(argument == null ? generator.Next().getRecycles() : argument);
+                Click(form.btnSave);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown action " + action);
+        }
+    }
+
+    // Sends the form the same event it receives when the button is pressed.
+    private void Click(JButton button)
+    {
+        form.actionPerformed(new ActionEvent(button, ActionEvent.ACTION_PERFORMED, button.getText()));
+    }
+
+    // Generates a weighted random workload. The same seed always gives the same workload.
+    private static List<String[]> GenerateScript(int count, long seed)
+    {
+        Random random = new Random(seed);
+        int totalWeight = 0;
+        for (int weight : ACTION_WEIGHTS.values())
+        {
+            totalWeight += weight;
+        }
+        List<String[]> script = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            int roll = random.nextInt(totalWeight);
+            String action = null;
+            for (Map.Entry<String, Integer> entry : ACTION_WEIGHTS.entrySet())
+            {
+                roll -= entry.getValue();
+                if (roll < 0)
+                {
+                    action = entry.getKey();
+                    break;
+                }
+            }
+            String argument = null;
+            switch (action)
+            {
+                case "FIND": argument = FIND_WORDS[random.nextInt(FIND_WORDS.length)]; break;
+                case "FILTER": argument = FILTER_WORDS[random.nextInt(FILTER_WORDS.length)]; break;
+                case "BINARY": argument = FIND_WORDS[random.nextInt(FIND_WORDS.length)]; break;
+                case "LOOKUP": argument = LOOKUP_WORDS[random.nextInt(LOOKUP_WORDS.length)]; break;
+                case "EDIT_SAVE": argument = FILTER_WORDS[random.nextInt(FILTER_WORDS.length)]; break;
+                default: break;
+            }
+            script.add(new String[] { action, argument });
+        }
+        return script;
+    }
+
+    // Reads a workload script, one action per line with an optional argument after the first space.
+    private static List<String[]> ReadScript(String fileName) throws Exception
+    {
+        List<String[]> script = new ArrayList<>();
+        //Read scripts as UTF-8 so the same script gives the same search text on every machine.
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                {
+                    continue;
+                }
+                String[] parts = line.split(" ", 2);
+                script.add(new String[] { parts[0].toUpperCase(), parts.length > 1 ? parts[1] : null });
+            }
+        }
+        return script;
+    }
+
+    private static long UsedHeap()
+    {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static void ResetPeakUsage()
+    {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            pool.resetPeakUsage();
+        }
+    }
+
+    // Adds up the peak usage of every heap memory pool since the peaks were last reset.
+    private static long PeakHeap()
+    {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+            {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    // Returns the total number of collections and total collection time in milliseconds across every collector.
+    private static long[] GcTotals()
+    {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            totals[0] += Math.max(0, gc.getCollectionCount());
+            totals[1] += Math.max(0, gc.getCollectionTime());
+        }
+        return totals;
+    }
+}